@@ -14,9 +14,11 @@
    [jsonista.core :as jsonista])
   (:import
    [com.sun.management ThreadMXBean]
-   [java.io ByteArrayInputStream File FileFilter]
+   [java.io ByteArrayInputStream File FileFilter InputStreamReader]
    [java.lang.management ManagementFactory]
-   [java.nio.file Files]))
+   [java.nio ByteBuffer]
+   [java.nio.file Files]
+   [fast_edn Utf8Reader]))
 
 (def ^:dynamic *bench-stack*
   [])
@@ -404,6 +406,151 @@
 ; └─────────────────┴──────────┘
 
 
+(defn bench-bytes
+  "InputStreamReader (what fast-edn.core/reader used to do for byte[]) vs Utf8Reader"
+  []
+  (print-table [:file "InputStreamReader" "byte[]" "ByteBuffer"]
+    (doall
+      (for [^File file (-> (io/file "dev/data")
+                         (.listFiles ^FileFilter #(boolean (re-matches #"basic_.*\.edn" (File/.getName %))))
+                         (->> (sort-by File/.getName)))
+            :let [bytes  (Files/readAllBytes (.toPath file))
+                  direct (doto (ByteBuffer/allocateDirect (alength bytes))
+                           (.put bytes)
+                           (.flip))
+                  times  (benching (File/.getName file)
+                           {"InputStreamReader" (quick-bench {:unit "μs"}
+                                                  (fast-edn/read-once (InputStreamReader. (ByteArrayInputStream. bytes) "UTF-8")))
+                            "byte[]"            (quick-bench {:unit "μs"}
+                                                  (fast-edn/read-once bytes))
+                            "ByteBuffer"        (quick-bench {:unit "μs"}
+                                                  (fast-edn/read-once (.duplicate direct)))})]]
+        (into {:file (file-name file)} (update-vals times #(str/replace % " μs" "")))))))
+
+(comment
+  (bench-bytes))
+
+(defn bench-buffer
+  "read-once from byte[] with fixed :buffer sizes vs adaptive growth
+   (:buffer 1024, grows up to :max-buffer 8192)"
+  []
+  (let [sizes [256 1024 4096 16384 65536]]
+    (print-table (concat [:file] sizes ["adaptive"])
+      (doall
+        (for [^File file (-> (io/file "dev/data")
+                           (.listFiles ^FileFilter #(boolean (re-matches #"(basic_1000+|nested_.*|strings_.*|keywords_10000|ints_.*)\.edn" (File/.getName %))))
+                           (->> (sort-by File/.getName)))
+              :let [bytes (Files/readAllBytes (.toPath file))
+                    times (benching (File/.getName file)
+                            (into {"adaptive" (quick-bench {:unit "μs"}
+                                                (fast-edn/read-once {:max-buffer 8192} bytes))}
+                              (for [size sizes]
+                                [size (benching size
+                                        (quick-bench {:unit "μs"}
+                                          (fast-edn/read-once {:buffer size} bytes)))])))]]
+          (into {:file (file-name file)} (update-vals times #(str/replace % " μs" ""))))))))
+
+(comment
+  (bench-buffer))
+
+(def results-100000
+  (delay
+    (let [results (:results (fast-edn/read-once (io/file "dev/data/basic_100000.edn")))]
+      (take 100000 (cycle results)))))
+
+(def lines-100000
+  (delay
+    (str/join "\n" (map pr-str @results-100000))))
+
+(def vector-100000
+  (delay
+    (pr-str (vec @results-100000))))
+
+(defn read-all-sequential [^String s]
+  (let [p (fast-edn/parser {:eof ::eof} s)]
+    (loop [acc (transient [])]
+      (let [o (fast-edn/read-next p)]
+        (if (= ::eof o)
+          (persistent! acc)
+          (recur (conj! acc o)))))))
+
+(defn bench-parallel
+  "100000 forms as newline-delimited stream (read-all-parallel) and as
+   one big vector (read-parallel), sequential vs N threads"
+  []
+  (let [lines  @lines-100000
+        vector @vector-100000]
+    (print-table [:threads :lines :vector]
+      (doall
+        (concat
+          [{:threads "sequential"
+            :lines   (quick-bench {:unit "ms"} (read-all-sequential lines))
+            :vector  (quick-bench {:unit "ms"} (fast-edn/read-string vector))}]
+          (for [threads [1 2 4 8 16]
+                :when (<= threads (.availableProcessors (Runtime/getRuntime)))
+                :let [pool (java.util.concurrent.ForkJoinPool. threads)]]
+            {:threads threads
+             :lines   (quick-bench {:unit "ms"} (fast-edn/read-all-parallel {:pool pool} lines))
+             :vector  (quick-bench {:unit "ms"} (fast-edn/read-parallel {:pool pool} vector))}))))))
+
+(comment
+  (bench-parallel))
+
+(defn bench-write
+  "pr-str vs fast-edn/write-string, and a full read + write round trip"
+  []
+  (print-table [:file "pr-str" "write-string" "round trip pr-str" "round trip fast-edn"]
+    (doall
+      (for [^File file (-> (io/file "dev/data")
+                         (.listFiles ^FileFilter #(boolean (re-matches #"(basic|nested|strings|keywords|ints)_.*\.edn" (File/.getName %))))
+                         (->> (sort-by File/.getName)))
+            :let [s     (slurp file)
+                  data  (fast-edn/read-string s)
+                  times (benching (File/.getName file)
+                          {"pr-str"              (quick-bench {:unit "μs"}
+                                                   (pr-str data))
+                           "write-string"        (quick-bench {:unit "μs"}
+                                                   (fast-edn/write-string data))
+                           "round trip pr-str"   (quick-bench {:unit "μs"}
+                                                   (pr-str (edn/read-string s)))
+                           "round trip fast-edn" (quick-bench {:unit "μs"}
+                                                   (fast-edn/write-string (fast-edn/read-string s)))})]]
+        (into {:file (file-name file)} (update-vals times #(str/replace % " μs" "")))))))
+
+(comment
+  (bench-write))
+
+(defn bench-corpus
+  "Throughput on `fast-edn.generators/corpus`, MB/s, one row per feature:
+   none of them, each one alone, all of them together"
+  ([]
+   (bench-corpus {}))
+  ([{:keys [seed size]
+     :or   {seed 42, size 100000}}]
+   (let [parsers {"clojure.edn" #(edn/read-string {:default tagged-literal} %)
+                  "fast-edn"    #(fast-edn/read-string {:default tagged-literal} %)}
+         mixes   (concat
+                   [["none" {}]]
+                   (for [f cgen/corpus-features]
+                     [(name f) {f 1}])
+                   [["all" (zipmap cgen/corpus-features (repeat 1))]])]
+     (print-table (concat [:feature :kb] (keys parsers))
+       (doall
+         (for [[feature features] mixes
+               :let [s     (cgen/corpus {:seed seed, :size size, :features features})
+                     times (benching feature
+                             (update-vals parsers
+                               (fn [parse-fn]
+                                 (quick-bench {:unit "μs"} (parse-fn s)))))]]
+           (into {:feature feature
+                  :kb      (quot (count s) 1024)}
+             (update-vals times
+               #(format "%.1f" (/ (count s) (parse-double (str/replace % " μs" ""))))))))))))
+
+(comment
+  (bench-corpus)
+  (bench-corpus {:size 1000000}))
+
 (comment
   (quick-bench
     (clojure.instant/read-instant-date "2024-12-17T15:54:00.000+01:00"))
@@ -455,6 +602,21 @@
     {:files   #".*\.edn"
      :parsers (keys edn-parsers)}))
 
+(defn -bench-bytes [_]
+  (bench-bytes))
+
+(defn -bench-parallel [_]
+  (bench-parallel))
+
+(defn -bench-write [_]
+  (bench-write))
+
+(defn -bench-buffer [_]
+  (bench-buffer))
+
+(defn -bench-corpus [opts]
+  (bench-corpus opts))
+
 (defn -bench-transit [_]
   (bench
     {:files   #"transit_.*"
@@ -0,0 +1,105 @@
+package fast_edn.jmh;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Compares two JMH results files written with `-rf csv`, e.g. from two
+ * versions of the parser:
+ *
+ *   java -cp jmh/target/benchmarks.jar fast_edn.jmh.Compare old.csv new.csv
+ *
+ * Prints score and allocation per op (gc.alloc.rate.norm, from `-prof gc`)
+ * for every benchmark + params combination present in both files
+ */
+public class Compare {
+  public static List<String> parseLine(String line) {
+    List<String> res = new ArrayList<>();
+    StringBuilder sb = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); ++i) {
+      char ch = line.charAt(i);
+      if (quoted) {
+        if (ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          sb.append('"');
+          i += 1;
+        } else if (ch == '"') {
+          quoted = false;
+        } else {
+          sb.append(ch);
+        }
+      } else if (ch == '"') {
+        quoted = true;
+      } else if (ch == ',') {
+        res.add(sb.toString());
+        sb.setLength(0);
+      } else {
+        sb.append(ch);
+      }
+    }
+    res.add(sb.toString());
+    return res;
+  }
+
+  /**
+   * Class.method[:metric], e.g. ParseBench.read:gc.alloc.rate.norm
+   */
+  public static String shortName(String benchmark) {
+    int    colon  = benchmark.indexOf(':');
+    String method = colon == -1 ? benchmark : benchmark.substring(0, colon);
+    String metric = colon == -1 ? "" : benchmark.substring(colon);
+    int    dot    = method.lastIndexOf('.', method.lastIndexOf('.') - 1);
+    return method.substring(dot + 1) + metric;
+  }
+
+  /**
+   * "Class.method[:metric] param=value ..." -> {score, unit}
+   */
+  public static Map<String, String[]> read(String file) throws IOException {
+    List<String> lines     = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+    List<String> header    = parseLine(lines.get(0));
+    int          benchmark = header.indexOf("Benchmark");
+    int          score     = header.indexOf("Score");
+    int          unit      = header.indexOf("Unit");
+
+    Map<String, String[]> res = new LinkedHashMap<>();
+    for (String line: lines.subList(1, lines.size())) {
+      List<String> row  = parseLine(line);
+      String       name = row.get(benchmark);
+      // secondary results from profilers: only allocation per op is stable enough to compare
+      if (name.contains(":") && !name.endsWith("gc.alloc.rate.norm")) {
+        continue;
+      }
+      StringBuilder key = new StringBuilder(shortName(name));
+      for (int i = 0; i < header.size(); ++i) {
+        if (header.get(i).startsWith("Param: ")) {
+          key.append(' ').append(header.get(i).substring("Param: ".length())).append('=').append(row.get(i));
+        }
+      }
+      res.put(key.toString(), new String[] {row.get(score), row.get(unit)});
+    }
+    return res;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: Compare old.csv new.csv");
+      System.exit(1);
+    }
+    Map<String, String[]> before = read(args[0]);
+    Map<String, String[]> after  = read(args[1]);
+    System.out.printf("%-90s %12s %12s %8s %s%n", "benchmark", "old", "new", "change", "unit");
+    for (Map.Entry<String, String[]> e: after.entrySet()) {
+      String[] old = before.get(e.getKey());
+      if (old == null) {
+        continue;
+      }
+      double o = Double.parseDouble(old[0]);
+      double n = Double.parseDouble(e.getValue()[0]);
+      String change = o == 0 ? "" : String.format(Locale.ROOT, "%+.1f%%", (n - o) * 100 / o);
+      System.out.printf(Locale.ROOT, "%-90s %12.3f %12.3f %8s %s%n", e.getKey(), o, n, change, e.getValue()[1]);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package fast_edn.jmh;
+
+import clojure.java.api.*;
+import clojure.lang.*;
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Inputs shared by benchmarks. Files are looked up in `fast_edn.data`
+ * directory (dev/data by default, relative to where JMH was started)
+ */
+public class Data {
+  public static final Object EOF = new Object();
+
+  public static Path path(String name) {
+    return Paths.get(System.getProperty("fast_edn.data", "dev/data"), name);
+  }
+
+  public static byte[] bytes(String name) throws IOException {
+    return Files.readAllBytes(path(name));
+  }
+
+  /**
+   * Same readers fast-edn.core/parser uses: #inst, #uuid
+   */
+  public static ILookup dataReaders() {
+    Clojure.var("clojure.core", "require").invoke(Clojure.read("fast-edn.core"));
+    return (ILookup) ((IDeref) Clojure.var("fast-edn.core", "default-data-readers")).deref();
+  }
+}
@@ -0,0 +1,66 @@
+package fast_edn.jmh;
+
+import fast_edn.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Reads every file in dev/data with a reused parser, the way
+ * fast-edn.core/read-string and read-once do
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class ParseBench {
+  @Param({"basic_10", "basic_100", "basic_1000", "basic_10000", "basic_100000",
+          "ints_1400",
+          "keywords_10", "keywords_100", "keywords_1000", "keywords_10000",
+          "nested_100000",
+          "strings_1000", "strings_uni_250"})
+  public String file;
+
+  @Param({"1024", "8192"})
+  public int buffer;
+
+  @Param({"false", "true"})
+  public boolean countLines;
+
+  /**
+   * string: String source, read in place if it fits into buffer
+   * bytes: byte[] through Utf8Reader
+   * stream: InputStream through Utf8Reader
+   */
+  @Param({"string", "bytes", "stream"})
+  public String input;
+
+  public String    string;
+  public byte[]    bytes;
+  public EdnParser parser;
+
+  @Setup
+  public void setup() throws IOException {
+    bytes  = Data.bytes(file + ".edn");
+    string = new String(bytes, StandardCharsets.UTF_8);
+    parser = new EdnParser(countLines, buffer, Data.dataReaders(), null, false, Data.EOF, null);
+  }
+
+  @Benchmark
+  public Object read() {
+    switch (input) {
+      case "string":
+        parser.setInput(string);
+        break;
+      case "bytes":
+        parser.setReader(new Utf8Reader(bytes));
+        break;
+      default:
+        parser.setReader(new Utf8Reader(new ByteArrayInputStream(bytes)));
+    }
+    return parser.readNext();
+  }
+}
@@ -0,0 +1,86 @@
+package fast_edn.jmh;
+
+import fast_edn.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * One vector of 2000 forms of the same kind, to see cost of a single token
+ * type: score / 2000 is time per token
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class TokenBench {
+  public static final int COUNT = 2000;
+
+  @Param({"ints", "negative_ints", "doubles", "keywords", "ns_keywords", "symbols",
+          "strings", "escaped_strings", "characters", "whitespace", "comments", "nested"})
+  public String token;
+
+  public String    string;
+  public EdnParser parser;
+
+  public static String generate(String token, Random random) {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < COUNT; ++i) {
+      switch (token) {
+        case "ints":
+          sb.append(random.nextInt(100000));
+          break;
+        case "negative_ints":
+          sb.append(-random.nextInt(100000));
+          break;
+        case "doubles":
+          sb.append(random.nextDouble() * 1000);
+          break;
+        case "keywords":
+          sb.append(":key-").append(random.nextInt(50));
+          break;
+        case "ns_keywords":
+          sb.append(":my.ns/key-").append(random.nextInt(50));
+          break;
+        case "symbols":
+          sb.append("sym-").append(random.nextInt(50));
+          break;
+        case "strings":
+          sb.append("\"string value ").append(random.nextInt(1000)).append('"');
+          break;
+        case "escaped_strings":
+          sb.append("\"line\\n\\\"quoted\\\" \\u00e9 ").append(random.nextInt(1000)).append('"');
+          break;
+        case "characters":
+          sb.append('\\').append((char) ('a' + random.nextInt(26)));
+          break;
+        case "whitespace":
+          sb.append(",  \n\t 1");
+          break;
+        case "comments":
+          sb.append("; comment\n1");
+          break;
+        case "nested":
+          sb.append("[{:a [1]} (2) #{3}]");
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown token: " + token);
+      }
+      sb.append(' ');
+    }
+    return sb.append(']').toString();
+  }
+
+  @Setup
+  public void setup() {
+    string = generate(token, new Random(42));
+    parser = new EdnParser(false, 1024, Data.dataReaders(), null, false, Data.EOF, null);
+  }
+
+  @Benchmark
+  public Object read() {
+    return parser.setInput(string).readNext();
+  }
+}
@@ -0,0 +1,6 @@
+#!/bin/bash
+set -o errexit -o nounset -o pipefail
+cd "`dirname $0`/.."
+
+lein javac
+clojure -X:dev bench/-bench-buffer
@@ -0,0 +1,13 @@
+#!/bin/bash
+# Usage: ./script/bench_jmh.sh [JMH args], e.g.
+#   ./script/bench_jmh.sh TokenBench
+#   ./script/bench_jmh.sh ParseBench -p file=basic_1000,nested_100000 -p input=bytes
+# Results go to jmh/results/<git revision>.csv, compare two of them with
+#   java -cp jmh/target/benchmarks.jar fast_edn.jmh.Compare jmh/results/<old>.csv jmh/results/<new>.csv
+set -o errexit -o nounset -o pipefail
+cd "`dirname $0`/.."
+
+mvn -B -q -f jmh/pom.xml package
+mkdir -p jmh/results
+REV=`git rev-parse --short HEAD``git diff --quiet HEAD -- src || echo -dirty`
+java -Duser.language=en -Duser.country=US -jar jmh/target/benchmarks.jar -prof gc -rf csv -rff "jmh/results/$REV.csv" "$@"
@@ -0,0 +1,39 @@
+package fast_edn;
+
+import clojure.lang.*;
+
+/**
+ * Immutable vector backed by double[], see PrimitiveVector
+ */
+public class DoubleVector extends PrimitiveVector {
+  public final double[] array;
+
+  public DoubleVector(double[] array, int cnt, IPersistentMap meta) {
+    super(cnt, meta);
+    this.array = array;
+  }
+
+  public Object get(int i) {
+    return array[i];
+  }
+
+  public DoubleVector withCount(int cnt) {
+    return new DoubleVector(array, cnt, meta);
+  }
+
+  public DoubleVector assocPrimitive(int i, Object o) {
+    if (o instanceof Double) {
+      double[] copy = java.util.Arrays.copyOf(array, cnt);
+      copy[i] = (Double) o;
+      return new DoubleVector(copy, cnt, meta);
+    }
+    return null;
+  }
+
+  public DoubleVector withMeta(IPersistentMap meta) {
+    if (this.meta == meta) {
+      return this;
+    }
+    return new DoubleVector(array, cnt, meta);
+  }
+}
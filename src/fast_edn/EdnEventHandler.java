@@ -0,0 +1,53 @@
+package fast_edn;
+
+import clojure.lang.*;
+
+/**
+ * Push-style (SAX-like) consumer of EDN, see EdnParser::readEvents.
+ *
+ * No collections are built: containers are reported as start/end pairs with
+ * their elements in between. Map elements alternate key, value, key, value.
+ * All methods do nothing by default, implement only what you need.
+ */
+public interface EdnEventHandler {
+  default void startList() {}
+  default void endList() {}
+
+  default void startVector() {}
+  default void endVector() {}
+
+  default void startSet() {}
+  default void endSet() {}
+
+  /**
+   * ns is a namespace of a namespaced map (#:ns{...}), null otherwise.
+   * Keys are reported as written, without ns applied
+   */
+  default void startMap(String ns) {}
+  default void endMap() {}
+
+  /**
+   * Next form is metadata, form after it is the one metadata is attached to
+   */
+  default void startMeta() {}
+
+  /**
+   * Next form is a value of tagged literal. Data readers are not invoked
+   */
+  default void tag(Symbol tag) {}
+
+  default void nullValue() {}
+  default void booleanValue(boolean value) {}
+  default void longValue(long value) {}
+  default void doubleValue(double value) {}
+
+  /**
+   * Numbers other than long and double: BigInt, BigDecimal, Ratio
+   */
+  default void number(Number value) {}
+
+  default void string(String value) {}
+  default void character(char value) {}
+  default void keyword(Keyword value) {}
+  default void symbol(Symbol value) {}
+}
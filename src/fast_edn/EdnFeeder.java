@@ -0,0 +1,174 @@
+package fast_edn;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Push-style reader of a stream of top-level forms, for input that arrives
+ * in fragments (e.g. from a non-blocking socket). Never blocks: `feed`
+ * returns forms completed so far, empty list if it needs more input.
+ *
+ * Input is scanned by EdnScanner, which keeps its state between chunks, so
+ * every char is scanned once. Completed forms are read in place by a parser
+ * taken from the pool only for the duration of the call: idle feeders hold
+ * no parser, just the incomplete tail of input.
+ *
+ * Not thread-safe. Don't mix byte and char chunks in one feeder. After
+ * an exception (malformed input) feeder can't be used anymore.
+ */
+public class EdnFeeder {
+  /**
+   * Buffer is dropped when empty if it grew past this size
+   */
+  public static final int MAX_RETAINED = 65536;
+
+  public final EdnParserPool pool;
+  public final EdnScanner    scanner;
+  public Utf8Reader          decoder;
+
+  public char[] buf;
+  public int    len;
+  public int    formStart;
+  public long   consumed;
+
+  /**
+   * Parsers in pool should return eofValue instead of throwing on EOF:
+   * input can end with `#_ form`
+   */
+  public EdnFeeder(EdnParserPool pool) {
+    this.pool = pool;
+    this.scanner = new EdnScanner(0, 1, 0);
+    this.buf = new char[256];
+  }
+
+  public void ensureCapacity(int extra) {
+    if (len + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+  }
+
+  /**
+   * Feeds next chunk of UTF-8 bytes. Multi-byte sequences can be split
+   * between chunks. Consumes chunk
+   */
+  public List<Object> feed(ByteBuffer chunk) {
+    if (decoder == null) {
+      decoder = new Utf8Reader((InputStream) null, 256);
+    }
+    decoder.append(chunk);
+    ensureCapacity(decoder.limit - decoder.pos);
+    int from = len;
+    len = decoder.decode(buf, len, buf.length, false);
+    return scan(from);
+  }
+
+  public List<Object> feed(char[] chars, int from, int to) {
+    ensureCapacity(to - from);
+    System.arraycopy(chars, from, buf, len, to - from);
+    int scanFrom = len;
+    len += to - from;
+    return scan(scanFrom);
+  }
+
+  /**
+   * Call at the end of input. Returns last form if it was only terminated
+   * by EOF (e.g. a number), throws if input ends in the middle of a form
+   */
+  public List<Object> finish() {
+    int from = len;
+    if (decoder != null && decoder.pos < decoder.limit) {
+      ensureCapacity(decoder.limit - decoder.pos);
+      len = decoder.decode(buf, len, buf.length, true);
+    }
+    scanner.scan(buf, from, len).finish(len);
+    List<Object> res = readForms();
+    if (hasContent(formStart, len)) {
+      // unfinished form or a prefix without value (`^:meta`, `#_ 1`):
+      // parser will tell which
+      readForm(len);
+    }
+    return res;
+  }
+
+  /**
+   * Whether buf[from, to) has anything besides whitespace and comments
+   */
+  public boolean hasContent(int from, int to) {
+    for (int i = from; i < to; ++i) {
+      char ch = buf[i];
+      if (ch == ';') {
+        for (; i < to && buf[i] != '\n' && buf[i] != '\r'; ++i);
+      } else if (!EdnParser.isWhitespace(ch)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public List<Object> scan(int from) {
+    scanner.scan(buf, from, len);
+    List<Object> res = readForms();
+    if (scanner.closedAt != -1) {
+      // closing bracket at top level
+      readForm(scanner.closedAt);
+    }
+    compact();
+    return res;
+  }
+
+  public EdnParser acquire(int to) {
+    EdnParser parser = pool.acquire();
+    parser.setInput(buf, formStart, to);
+    parser.readGlobalPos = (int) consumed;
+    return parser;
+  }
+
+  public List<Object> readForms() {
+    int count = scanner.endsCount;
+    if (count == 0) {
+      return Collections.emptyList();
+    }
+    int end = scanner.ends[count - 1];
+    List<Object> res = new ArrayList<>(count);
+    EdnParser parser = acquire(end);
+    try {
+      for (int i = 0; i < count; ++i) {
+        res.add(parser.readNext());
+      }
+    } finally {
+      pool.release(parser);
+    }
+    formStart = end;
+    scanner.endsCount = 0;
+    return res;
+  }
+
+  public void readForm(int to) {
+    EdnParser parser = acquire(to);
+    try {
+      parser.readNext();
+    } finally {
+      pool.release(parser);
+    }
+  }
+
+  /**
+   * Moves incomplete form to the start of buf
+   */
+  public void compact() {
+    if (formStart == 0) {
+      return;
+    }
+    int rest = len - formStart;
+    if (rest == 0 && buf.length > MAX_RETAINED) {
+      buf = new char[256];
+    } else {
+      System.arraycopy(buf, formStart, buf, 0, rest);
+    }
+    consumed += formStart;
+    len = rest;
+    formStart = 0;
+    scanner.lastEnd = 0;
+  }
+}
@@ -0,0 +1,181 @@
+package fast_edn;
+
+import java.util.*;
+
+/**
+ * Structural index of one form: where every collection inside it opens and
+ * where every form at every depth ends. Built by EdnScanner in one pass, so
+ * readers that visit nested collections one by one (LazyEdn) jump between
+ * elements instead of scanning the same chars again for each level.
+ *
+ * Stored as a flat tape of (pos, link) pairs in scan order:
+ *
+ *   opening bracket  pos of the bracket, link to tape index of its end
+ *                    entry (0 while not closed)
+ *   form end         pos after the form, link is CHILD or ABSORBED
+ *                    (`^meta`, `#tag` and `#_` are glued to the next form)
+ */
+public class EdnIndex {
+  public static final int CHILD    = -1;
+  public static final int ABSORBED = -2;
+
+  public int[] tape;
+  public int   size;
+
+  public int[]  open;
+  public char[] openers;
+  public int    openCount;
+  public int[]  absorb;
+
+  /**
+   * Set when a collection is closed with a wrong bracket, e.g. `[1 2)`
+   */
+  public boolean mismatched;
+
+  /**
+   * Deepest nesting of collections seen, 1 for a flat one
+   */
+  public int   maxDepth;
+
+  public EdnIndex(int capacity) {
+    this.tape = new int[Math.max(16, capacity) * 2];
+    this.open = new int[16];
+    this.openers = new char[16];
+    this.absorb = new int[16];
+  }
+
+  /**
+   * Indexes the first form in buf[from, to)
+   */
+  public static EdnIndex build(char[] buf, int from, int to) {
+    EdnIndex   index   = new EdnIndex((to - from) / 8);
+    EdnScanner scanner = new EdnScanner(0, 1, 0);
+    scanner.index = index;
+    scanner.lastEnd = from;
+    scanner.maxEnds = 1;
+    scanner.scan(buf, from, to);
+    return index;
+  }
+
+  public void append(int pos, int link) {
+    if (size * 2 == tape.length) {
+      tape = Arrays.copyOf(tape, tape.length * 2);
+    }
+    tape[size * 2] = pos;
+    tape[size * 2 + 1] = link;
+    size += 1;
+  }
+
+  /**
+   * Collection opens with bracket ch at pos, depth is inside it
+   */
+  public void open(int pos, int depth, char ch) {
+    if (depth > maxDepth) {
+      maxDepth = depth;
+    }
+    if (openCount == open.length) {
+      open = Arrays.copyOf(open, openCount * 2);
+      openers = Arrays.copyOf(openers, openCount * 2);
+    }
+    if (depth >= absorb.length) {
+      absorb = Arrays.copyOf(absorb, Math.max(absorb.length * 2, depth + 1));
+    }
+    absorb[depth] = 0;
+    open[openCount] = size;
+    openers[openCount] = ch;
+    openCount += 1;
+    append(pos, 0);
+  }
+
+  /**
+   * Innermost open collection is closed with bracket ch, next form end
+   * belongs to it
+   */
+  public void close(char ch) {
+    if (openCount > 0) {
+      openCount -= 1;
+      tape[open[openCount] * 2 + 1] = size;
+      char opener = openers[openCount];
+      if (ch != (opener == '(' ? ')' : opener == '[' ? ']' : '}')) {
+        mismatched = true;
+      }
+    }
+  }
+
+  /**
+   * Prefix at depth: next form there is not an element on its own
+   */
+  public void absorb(int depth) {
+    if (depth < absorb.length) {
+      absorb[depth] += 1;
+    }
+  }
+
+  public void end(int pos, int depth) {
+    if (depth < absorb.length && absorb[depth] > 0) {
+      absorb[depth] -= 1;
+      append(pos, ABSORBED);
+    } else {
+      append(pos, CHILD);
+    }
+  }
+
+  /**
+   * Tape index of the collection that opens at pos, -1 if there's none
+   */
+  public int find(int pos) {
+    int lo = 0;
+    int hi = size - 1;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (tape[mid * 2] < pos) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    // a form end can share pos with the bracket right after it, e.g. `a[`
+    for (int i = lo; i < size && tape[i * 2] == pos; ++i) {
+      if (tape[i * 2 + 1] >= 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Same as EdnScanner::splitChildren, from the index: ends of elements of
+   * the collection that opens at pos, then position after its closing
+   * bracket. null if pos is not indexed or collection is not closed
+   */
+  public int[] children(int pos) {
+    int i = find(pos);
+    if (i == -1 || tape[i * 2 + 1] == 0) {
+      return null;
+    }
+    int   last  = tape[i * 2 + 1];
+    int[] ends  = new int[8];
+    int   count = 0;
+    for (i += 1; i < last; ++i) {
+      int link = tape[i * 2 + 1];
+      if (link >= 0) {
+        // nested collection: jump to its end entry
+        if (link == 0) {
+          return null;
+        }
+        i = link;
+        link = tape[i * 2 + 1];
+      }
+      if (link == CHILD) {
+        if (count == ends.length) {
+          ends = Arrays.copyOf(ends, count * 2);
+        }
+        ends[count] = tape[i * 2];
+        count += 1;
+      }
+    }
+    ends = Arrays.copyOf(ends, count + 1);
+    ends[count] = tape[last * 2];
+    return ends;
+  }
+}
@@ -18,7 +18,14 @@ public class EdnParser {
   public final boolean throwOnEOF;
   public final Object  eofValue;
 
+  public final int bufferSize;
+
+  public char[]   ownBuf;
   public char[]   readBuf;
+  public int      maxBufferSize;
+  public int      refills;
+  public int      straddles;
+  public int      readStart;
   public char[]   accumulator;
   public int      accumulatorLength;
 
@@ -31,6 +38,34 @@ public class EdnParser {
   public int      column;
   public boolean  skipLF;
   public int      discardDepth;
+  public EdnScanner skipScanner;
+  public String[] stringCache;
+  public boolean  primitiveVectors;
+  public long     boxCacheMin;
+  public long     boxCacheMax;
+  public Object[] scratch;
+  public int      scratchTop;
+  public int[]    frameTypes;
+  public int[]    frameBases;
+  public int      frameCount;
+  public int      collDepth;
+  public int      maxDepth = Integer.MAX_VALUE;
+
+  public static final int GROW_CHECK = 8;
+
+  /**
+   * Reader of in-place input (see setInput): there's nothing left to read
+   * once the buffer is consumed
+   */
+  public static final Reader END_OF_INPUT = new Reader() {
+    @Override
+    public int read(char[] buf, int off, int len) {
+      return -1;
+    }
+
+    @Override
+    public void close() {}
+  };
 
   public EdnParser(boolean countLines, int bufferSize, ILookup dataReaders, IFn defaultDataReader, boolean throwOnEOF, Object eofValue, Reader reader) {
     this.countLines = countLines;
@@ -39,24 +74,107 @@ public class EdnParser {
     this.throwOnEOF = throwOnEOF;
     this.eofValue = eofValue;
 
-    this.readBuf = new char[bufferSize];
+    this.bufferSize = bufferSize;
+    this.ownBuf = new char[bufferSize];
+    this.maxBufferSize = bufferSize;
+    this.readBuf = ownBuf;
     this.accumulator = new char[32];
     this.accumulatorLength = 0;
+    this.scratch = new Object[32];
+    this.frameTypes = new int[16];
+    this.frameBases = new int[16];
     
     setReader(reader);
   }
 
   public EdnParser setReader(Reader reader) {
     this.reader = reader;
+    this.readBuf = ownBuf;
+    this.readStart = 0;
     this.readPos = 0;
     this.readGlobalPos = 0;
     this.readLen = 0;
     this.isEOF = false;
+    this.refills = 0;
+    this.straddles = 0;
 
     this.line = 0;
     this.column = 0;
     this.skipLF = false;
-    this.discardDepth = 0;
+    resetStack();
+    return this;
+  }
+
+  /**
+   * Reads from buf[from, to) in place, without copying it into the read
+   * buffer. Whole input is one buffer, so tokens never cross a boundary.
+   * Offsets in error messages are relative to `from`
+   */
+  public EdnParser setInput(char[] buf, int from, int to) {
+    setReader(END_OF_INPUT);
+    this.readBuf = buf;
+    this.readStart = from;
+    this.readPos = from;
+    this.readGlobalPos = -from;
+    this.readLen = to;
+    return this;
+  }
+
+  /**
+   * Reads from string. Strings that fit into the read buffer are copied
+   * there in one go and read in place. Longer ones are read in chunks:
+   * copying them whole costs more in allocation than it saves
+   */
+  public EdnParser setInput(String s) {
+    int len = s.length();
+    if (len <= ownBuf.length) {
+      s.getChars(0, len, ownBuf, 0);
+      return setInput(ownBuf, 0, len);
+    }
+    return setReader(new StringReader(s));
+  }
+
+  /**
+   * Lets read buffer grow up to `size` chars when tokens often cross its
+   * end (see nextBufferArray). Buffer never shrinks back
+   */
+  public EdnParser setMaxBuffer(int size) {
+    this.maxBufferSize = Math.max(size, ownBuf.length);
+    return this;
+  }
+
+  /**
+   * Makes parser return vectors of only longs as LongVector and of only
+   * doubles as DoubleVector
+   */
+  public EdnParser setPrimitiveVectors(boolean primitiveVectors) {
+    this.primitiveVectors = primitiveVectors;
+    return this;
+  }
+
+  /**
+   * Makes parser return the same String instance for repeated short strings,
+   * using a direct-mapped cache of `size` slots (rounded up to power of 2).
+   * 0 disables
+   */
+  public EdnParser setDedupeStrings(int size) {
+    if (size <= 0) {
+      stringCache = null;
+    } else {
+      int slots = Integer.highestOneBit(size);
+      stringCache = new String[slots < size ? slots << 1 : slots];
+    }
+    return this;
+  }
+
+  /**
+   * Makes parser reuse boxed Longs and whole Doubles in [min, max) and
+   * Characters below BoxCache.CHARS. Range is clamped to what BoxCache
+   * holds. Empty range disables
+   */
+  public EdnParser setBoxCache(long min, long max) {
+    boxCacheMin = Math.max(min, BoxCache.MIN);
+    boxCacheMax = Math.max(boxCacheMin, Math.min(max, BoxCache.MAX));
     return this;
   }
 
@@ -67,7 +185,7 @@ public class EdnParser {
 
   public void updateLineColumn(int until) {
     char[] buf = readBuf;
-    for (int pos = 0; pos < until; ++pos) {
+    for (int pos = readStart; pos < until; ++pos) {
       char ch = buf[pos];
 
       if (skipLF && ch == '\n') {
@@ -91,7 +209,9 @@ public class EdnParser {
   }
 
   public void nextBuffer() {
-    if (!isEOF) {
+    if (reader == END_OF_INPUT) {
+      isEOF = true;
+    } else if (!isEOF) {
       try {
         // for better context() in badly buffered readers (e.g. stdin)
         if (readLen <= readBuf.length / 2) {
@@ -102,13 +222,22 @@ public class EdnParser {
             readLen += readLenNew;
           }
         } else {
+          int     line   = this.line;
+          int     column = this.column;
+          boolean skipLF = this.skipLF;
           if (countLines) {
             updateLineColumn(readLen);
           }
-          int readLenNew = reader.read(readBuf, 0, readBuf.length);
+          char[] buf = nextBufferArray();
+          int readLenNew = reader.read(buf, 0, buf.length);
           if (readLenNew == -1) {
             isEOF = true;
+            // context() will count lines in readBuf again
+            this.line = line;
+            this.column = column;
+            this.skipLF = skipLF;
           } else {
+            readBuf = ownBuf = buf;
             readPos = 0;
             readGlobalPos += readLen;
             readLen = readLenNew;
@@ -120,6 +249,31 @@ public class EdnParser {
     }
   }
 
+  /**
+   * Array to read next buffer into. Every GROW_CHECK refills, doubles buffer
+   * size (up to maxBufferSize) if at least half of those refills happened in
+   * the middle of a token. Tokens that cross buffer end take the slower
+   * *Complex paths through accumulator
+   */
+  public char[] nextBufferArray() {
+    refills += 1;
+    if (refills < GROW_CHECK) {
+      return readBuf;
+    }
+    boolean grow = straddles * 2 >= refills && readBuf.length < maxBufferSize;
+    refills = 0;
+    straddles = 0;
+    return grow ? new char[(int) Math.min((long) readBuf.length * 2, maxBufferSize)] : readBuf;
+  }
+
+  /**
+   * nextBuffer() for when current token continues past readLen
+   */
+  public void nextBufferInToken() {
+    straddles += 1;
+    nextBuffer();
+  }
+
   public int read() {
     if (!isEOF && readLen > readPos) {
       return readBuf[readPos++];
@@ -152,7 +306,21 @@ public class EdnParser {
   }
 
   public int skipWhitespace() {
-    return skip(EdnParser::isWhitespace);
+    while (!isEOF) {
+      char[] buf = readBuf;
+      int    pos = readPos;
+      int    len = readLen;
+      for (; pos < len; ++pos) {
+        int ch = buf[pos];
+        if (ch >= 0x80 || (CHAR_CLASS[ch] & WHITESPACE) == 0) {
+          readPos = pos + 1;
+          return ch;
+        }
+      }
+      readPos = pos;
+      nextBuffer();
+    }
+    return -1;
   }
 
   public boolean peekBoundary() {
@@ -187,12 +355,12 @@ public class EdnParser {
   }
   
   public String context() {
-    if (readLen <= 0) {
+    if (readLen <= readStart) {
       return "";
     }
 
     int start = Math.min(readPos, readLen - 1);
-    for (; start > Math.max(0, readPos - 100); --start) {
+    for (; start > Math.max(readStart, readPos - 100); --start) {
       int ch = readBuf[start];
       if (ch == '\n' || ch == '\r') {
         start = Math.min(start + 1, readPos);
@@ -273,7 +441,7 @@ public class EdnParser {
       char ch = buf[pos];
       if (ch == '"') {
         readPos = pos + 1;
-        return new String(buf, start, pos - start);
+        return newString(buf, start, pos);
       }
       if (ch == '\\') {
         break;
@@ -283,6 +451,25 @@ public class EdnParser {
     return readStringComplex(buf, start, pos);
   }
 
+  public static final int STRING_CACHE_MAX_LENGTH = 32;
+
+  public String newString(char[] buf, int start, int end) {
+    String[] cache = stringCache;
+    if (cache == null || end - start > STRING_CACHE_MAX_LENGTH) {
+      return new String(buf, start, end - start);
+    }
+
+    int    idx    = cacheHash(buf, start, end) & (cache.length - 1);
+    String cached = cache[idx];
+    if (cached != null && cacheMatches(cached, buf, start, end)) {
+      return cached;
+    }
+
+    String s = new String(buf, start, end - start);
+    cache[idx] = s;
+    return s;
+  }
+
   public byte digit16(int ch) {
     if ('0' <= ch && ch <= '9') {
       return (byte) (ch - '0');
@@ -389,13 +576,13 @@ public class EdnParser {
         } else if (ch1 == '"') {
           readPos = pos + 1;
           accumulatorAppend(buf, start, pos);
-          return accumulatorToString();
+          return newString(accumulator, 0, accumulatorLength);
         }
       }
 
       accumulatorAppend(buf, start, len);
       readPos = pos;
-      nextBuffer();
+      nextBufferInToken();
     }
 
     throw new RuntimeException("EOF while reading string: \"" + accumulatorToString() + context());
@@ -417,7 +604,7 @@ public class EdnParser {
     unread();
 
     if (peek == -1 || isBoundary(peek)) {
-      return (char) ch;
+      return boxChar(ch);
     }
 
     if (ch == 'u') {
@@ -430,7 +617,7 @@ public class EdnParser {
       if (ch >= 0xD800 && ch <= 0xDFFF) {
         throw new RuntimeException("Invalid character constant: \\u" + String.format("%04x", ch) + context());
       }
-      return Character.valueOf((char) ch);
+      return boxChar(ch);
     } else if (ch == 'o') {
       if (peek < '0' || peek > '7') {
         String rest = continueReadingUntilBoundary("");
@@ -441,7 +628,7 @@ public class EdnParser {
         String rest = continueReadingUntilBoundary("");
         throw new RuntimeException("Invalid character constant: \\o" + Integer.toString(ch, 8) + rest + context());
       }
-      return Character.valueOf((char) ch);
+      return boxChar(ch);
     }
     // important that all constants start with different letter
     else if (compareNext(ch, "newline", "Invalid character constant: \\")) {
@@ -514,7 +701,7 @@ public class EdnParser {
 
       accumulatorAppend(buf, start, len);
       readPos = pos;
-      nextBuffer();
+      nextBufferInToken();
     }
 
     return finalizeSymbol(accumulator, 0, slash, accumulatorLength);
@@ -570,10 +757,6 @@ public class EdnParser {
       return Boolean.FALSE;
     }
 
-    if (slash == -1) {
-      return Symbol.intern(null, new String(buf, start, end - start));
-    }
-
     if (slash == start) {
       throw new RuntimeException("Symbol's namespace can't be empty: " + new String(buf, start, end - start) + context());
     }
@@ -582,8 +765,27 @@ public class EdnParser {
       throw new RuntimeException("Symbol's name can't be empty: " + new String(buf, start, end - start) + context());
     }
 
-    return Symbol.intern(new String(buf, start, slash - start),
-                         new String(buf, slash + 1, end - (slash + 1)));
+    int idx = -1;
+    if (end - start <= CACHE_MAX_LENGTH) {
+      idx = cacheHash(buf, start, end) & (CACHE_SIZE - 1);
+      Symbol cached = symbolCache[idx];
+      if (cached != null && cacheMatches(cached.toString(), buf, start, end)) {
+        return cached;
+      }
+    }
+
+    Symbol sym;
+    if (slash == -1) {
+      sym = Symbol.intern(null, new String(buf, start, end - start));
+    } else {
+      sym = Symbol.intern(new String(buf, start, slash - start),
+                          new String(buf, slash + 1, end - (slash + 1)));
+    }
+
+    if (idx != -1) {
+      symbolCache[idx] = sym;
+    }
+    return sym;
   }
 
 
@@ -591,24 +793,18 @@ public class EdnParser {
   // readTagged //
   ////////////////
 
-  public Object readTagged() {
-    Object tag = readObject(true);
-
-    if (tag instanceof Symbol) {
-      Object value = readObject(true);
-
-      // don’t invoke tag handlers inside #_ (issue #28)
-      if (discardDepth > 0) {
-        return value;
-      }
+  public Object tagged(Symbol tag, Object value) {
+    // don’t invoke tag handlers inside #_ (issue #28)
+    if (discardDepth > 0) {
+      return value;
+    }
 
-      IFn dataReader = (IFn) RT.get(dataReaders, tag);
+    IFn dataReader = (IFn) RT.get(dataReaders, tag);
 
-      if (dataReader != null) {
-        return dataReader.invoke(value);
-      } else if (defaultDataReader != null) {
-        return defaultDataReader.invoke(tag, value);
-      }
+    if (dataReader != null) {
+      return dataReader.invoke(value);
+    } else if (defaultDataReader != null) {
+      return defaultDataReader.invoke(tag, value);
     }
 
     throw new RuntimeException("No dispatch macro for: #" + tag + context());
@@ -665,7 +861,7 @@ public class EdnParser {
 
       accumulatorAppend(buf, start, len);
       readPos = pos;
-      nextBuffer();
+      nextBufferInToken();
     }
 
     return finalizeKeyword(accumulator, 0, slash, accumulatorLength);
@@ -685,10 +881,6 @@ public class EdnParser {
       return Keyword.intern(Symbol.intern(null, "/"));
     }
 
-    if (slash == -1) {
-      return Keyword.intern(Symbol.intern(null, new String(buf, start, end - start)));
-    }
-
     if (slash == start) {
       throw new RuntimeException("Keyword's namespace can't be empty: " + new String(buf, start, end - start) + context());
     }
@@ -697,8 +889,118 @@ public class EdnParser {
       throw new RuntimeException("Keyword's name can't be empty: " + new String(buf, start, end - start) + context());
     }
 
-    return Keyword.intern(Symbol.intern(new String(buf, start, slash - start),
+    int idx = -1;
+    if (end - start <= CACHE_MAX_LENGTH) {
+      idx = cacheHash(buf, start, end) & (CACHE_SIZE - 1);
+      Keyword cached = keywordCache[idx];
+      if (cached != null && cacheMatches(cached.sym.toString(), buf, start, end)) {
+        return cached;
+      }
+    }
+
+    Keyword kw;
+    if (slash == -1) {
+      kw = Keyword.intern(Symbol.intern(null, new String(buf, start, end - start)));
+    } else {
+      kw = Keyword.intern(Symbol.intern(new String(buf, start, slash - start),
                                         new String(buf, slash + 1, end - (slash + 1))));
+    }
+
+    if (idx != -1) {
+      keywordCache[idx] = kw;
+    }
+    return kw;
+  }
+
+
+  ///////////
+  // Cache //
+  ///////////
+
+  /**
+   * Keywords and symbols are looked up by their chars in readBuf, without
+   * allocating a String or going through Keyword.intern. Caches are shared by
+   * all parsers, direct-mapped: a new entry simply replaces whatever was in
+   * its slot, so memory stays bounded no matter the input. Races between
+   * threads are benign: entries are immutable and are checked on every hit.
+   */
+  public static final int       CACHE_SIZE       = 4096;
+  public static final int       CACHE_MAX_LENGTH = 64;
+  public static final Keyword[] keywordCache     = new Keyword[CACHE_SIZE];
+  public static final Symbol[]  symbolCache      = new Symbol[CACHE_SIZE];
+
+  public static int cacheHash(char[] buf, int start, int end) {
+    int h = 0;
+    for (int i = start; i < end; ++i) {
+      h = 31 * h + buf[i];
+    }
+    return h ^ (h >>> 16);
+  }
+
+  public static boolean cacheMatches(String s, char[] buf, int start, int end) {
+    if (s.length() != end - start) {
+      return false;
+    }
+    for (int i = start; i < end; ++i) {
+      if (s.charAt(i - start) != buf[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+  /**
+   * Boxes shared by all parsers with setBoxCache, filled lazily. Only
+   * allocated once some parser enables it
+   */
+  public static class BoxCache {
+    public static final int         MIN     = -32768;
+    public static final int         MAX     = 65536;
+    public static final int         CHARS   = 0x800;
+    public static final Long[]      longs   = new Long[MAX - MIN];
+    public static final Double[]    doubles = new Double[MAX - MIN];
+    public static final Character[] chars   = new Character[CHARS];
+  }
+
+  public Long boxLong(long val) {
+    if (val >= boxCacheMin && val < boxCacheMax) {
+      int  idx    = (int) (val - BoxCache.MIN);
+      Long cached = BoxCache.longs[idx];
+      if (cached == null) {
+        cached = val;
+        BoxCache.longs[idx] = cached;
+      }
+      return cached;
+    }
+    return val;
+  }
+
+  public Double boxDouble(double d) {
+    long val = (long) d;
+    // -0.0 == 0 but must keep its sign
+    if (val == d && val >= boxCacheMin && val < boxCacheMax && (val != 0 || Double.doubleToRawLongBits(d) == 0)) {
+      int    idx    = (int) (val - BoxCache.MIN);
+      Double cached = BoxCache.doubles[idx];
+      if (cached == null) {
+        cached = d;
+        BoxCache.doubles[idx] = cached;
+      }
+      return cached;
+    }
+    return d;
+  }
+
+  public Character boxChar(int ch) {
+    if (boxCacheMax > boxCacheMin && ch < BoxCache.CHARS) {
+      Character cached = BoxCache.chars[ch];
+      if (cached == null) {
+        cached = (char) ch;
+        BoxCache.chars[ch] = cached;
+      }
+      return cached;
+    }
+    return (char) ch;
   }
 
 
@@ -707,6 +1009,13 @@ public class EdnParser {
   ////////////////
 
   public Number readNumber() {
+    return readNumber(false);
+  }
+
+  /**
+   * `negative`: minus sign was already consumed. Applied before boxing
+   */
+  public Number readNumber(boolean negative) {
     char[] buf   = readBuf;
     int    start = readPos;
     int    pos   = start;
@@ -735,17 +1044,17 @@ public class EdnParser {
         }
 
         readPos = pos;
-        return val;
+        return boxLong(negative ? -val : val);
       } else {
         break;
       }
     }
 
     readPos = pos;
-    return readNumberComplex(buf, start, pos);
+    return readNumberComplex(buf, start, pos, negative);
   }
 
-  public Number readNumberComplex(char[] buf, int start, int pos) {
+  public Number readNumberComplex(char[] buf, int start, int pos, boolean negative) {
     accumulatorLength = 0;
     accumulatorAppend(buf, start, pos);
 
@@ -798,23 +1107,22 @@ public class EdnParser {
 
       accumulatorAppend(buf, start, len);
       readPos = pos;
-      nextBuffer();
+      nextBufferInToken();
     }
 
     if (misplacedSign) {
       throw new RuntimeException("Invalid number: " + accumulatorToString() + context());
     }
 
+    Number n;
     if (isRatio) {
-      Number numerator = finalizeInt(accumulator, 0, radixPos, accumulatorLength);
-      return finalizeRatio(numerator);
-    }
-
-    if (isFloat) {
-      return finalizeFloat(accumulator, 0, accumulatorLength);
+      n = finalizeRatio(finalizeInt(accumulator, 0, radixPos, accumulatorLength));
+    } else if (isFloat) {
+      return finalizeFloat(accumulator, 0, accumulatorLength, negative);
+    } else {
+      n = finalizeInt(accumulator, 0, radixPos, accumulatorLength);
     }
-
-    return finalizeInt(accumulator, 0, radixPos, accumulatorLength);
+    return negative ? negate(n) : n;
   }
 
   public Number finalizeRatio(Number numerator) {
@@ -834,13 +1142,218 @@ public class EdnParser {
     return Numbers.divide(numerator, denominator);
   }
 
-  public Number finalizeFloat(char[] buf, int start, int end) {
+  public Number finalizeFloat(char[] buf, int start, int end, boolean negative) {
     int len = end - start;
     if (buf[end - 1] == 'M') {
-      return new BigDecimal(buf, start, len - 1);
-    } else {
-      return Double.parseDouble(new String(buf, start, len));
+      BigDecimal bd = new BigDecimal(buf, start, len - 1);
+      return negative ? bd.negate() : bd;
+    }
+
+    double d = parseDouble(buf, start, end);
+    if (Double.isNaN(d)) {
+      // anything unusual: let JDK parse it or report an error
+      d = Double.parseDouble(new String(buf, start, len));
+    }
+    return boxDouble(negative ? -d : d);
+  }
+
+  public static final double[] POWERS_OF_TEN = {
+    1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  public static final int MIN_EXP10 = -348;
+  public static final int MAX_EXP10 = 347;
+
+  /**
+   * 128 most significant bits of 10^e for e in [MIN_EXP10, MAX_EXP10],
+   * rounded down, as (hi, lo) pairs
+   */
+  public static final long[] POWERS_OF_TEN_128 = new long[(MAX_EXP10 - MIN_EXP10 + 1) * 2];
+
+  static {
+    BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    for (int e = MIN_EXP10; e <= MAX_EXP10; ++e) {
+      BigInteger p = BigInteger.TEN.pow(Math.abs(e));
+      BigInteger m;
+      if (e >= 0) {
+        int bits = p.bitLength();
+        m = bits > 128 ? p.shiftRight(bits - 128) : p.shiftLeft(128 - bits);
+      } else {
+        m = BigInteger.ONE.shiftLeft(p.bitLength() + 127).divide(p);
+      }
+      int idx = (e - MIN_EXP10) * 2;
+      POWERS_OF_TEN_128[idx]     = m.shiftRight(64).longValue();
+      POWERS_OF_TEN_128[idx + 1] = m.and(mask).longValue();
+    }
+  }
+
+  public static long unsignedMultiplyHigh(long x, long y) {
+    long x0 = x & 0xFFFFFFFFL, x1 = x >>> 32;
+    long y0 = y & 0xFFFFFFFFL, y1 = y >>> 32;
+    long w0 = x0 * y0;
+    long t  = x1 * y0 + (w0 >>> 32);
+    long w1 = (t & 0xFFFFFFFFL) + x0 * y1;
+    return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+  }
+
+  /**
+   * Parses decimal floating point number from buf[start, end) without
+   * allocating. Returns NaN if it can’t be done exactly (more than 19
+   * significant digits, subnormals, ambiguous rounding) or if input is not
+   * a plain decimal number.
+   *
+   * Exact Clinger path for small mantissas and exponents, Eisel-Lemire
+   * (Lemire, “Number Parsing at a Gigabyte per Second”) for the rest.
+   */
+  public static double parseDouble(char[] buf, int start, int end) {
+    int     i   = start;
+    boolean neg = false;
+    if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+      neg = buf[i] == '-';
+      i += 1;
+    }
+
+    long man    = 0;
+    int  digits = 0;
+    int  exp10  = 0;
+
+    int intStart = i;
+    for (; i < end; ++i) {
+      char ch = buf[i];
+      if (ch < '0' || ch > '9') {
+        break;
+      }
+      if (digits > 0 || ch != '0') {
+        if (digits == 19) {
+          return Double.NaN;
+        }
+        man = man * 10 + (ch - '0');
+        digits += 1;
+      }
+    }
+    boolean hasInt = i > intStart;
+
+    boolean hasFrac = false;
+    if (i < end && buf[i] == '.') {
+      i += 1;
+      int fracStart = i;
+      for (; i < end; ++i) {
+        char ch = buf[i];
+        if (ch < '0' || ch > '9') {
+          break;
+        }
+        if (digits > 0 || ch != '0') {
+          if (digits == 19) {
+            return Double.NaN;
+          }
+          man = man * 10 + (ch - '0');
+          digits += 1;
+        }
+        exp10 -= 1;
+      }
+      hasFrac = i > fracStart;
+    }
+
+    if (!hasInt && !hasFrac) {
+      return Double.NaN;
+    }
+
+    if (i < end && (buf[i] == 'e' || buf[i] == 'E')) {
+      i += 1;
+      boolean expNeg = false;
+      if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+        expNeg = buf[i] == '-';
+        i += 1;
+      }
+      int expStart = i;
+      int exp      = 0;
+      for (; i < end; ++i) {
+        char ch = buf[i];
+        if (ch < '0' || ch > '9') {
+          break;
+        }
+        if (exp < 100000) {
+          exp = exp * 10 + (ch - '0');
+        }
+      }
+      if (i == expStart) {
+        return Double.NaN;
+      }
+      exp10 += expNeg ? -exp : exp;
+    }
+
+    if (i != end) {
+      return Double.NaN;
+    }
+
+    if (man == 0) {
+      return neg ? -0.0 : 0.0;
+    }
+
+    // Clinger: both mantissa and 10^exp10 are exact doubles
+    if (man > 0 && man <= (1L << 53) && exp10 >= -22 && exp10 <= 22) {
+      double d = (double) man;
+      d = exp10 < 0 ? d / POWERS_OF_TEN[-exp10] : d * POWERS_OF_TEN[exp10];
+      return neg ? -d : d;
+    }
+
+    if (exp10 < MIN_EXP10 || exp10 > MAX_EXP10) {
+      return Double.NaN;
+    }
+
+    // Eisel-Lemire
+    int clz = Long.numberOfLeadingZeros(man);
+    man <<= clz;
+    long retExp2 = ((217706L * exp10) >> 16) + 64 + 1023 - clz;
+
+    int  idx = (exp10 - MIN_EXP10) * 2;
+    long pHi = POWERS_OF_TEN_128[idx];
+    long pLo = POWERS_OF_TEN_128[idx + 1];
+    long xHi = unsignedMultiplyHigh(man, pHi);
+    long xLo = man * pHi;
+
+    if ((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + man, man) < 0) {
+      long yHi      = unsignedMultiplyHigh(man, pLo);
+      long yLo      = man * pLo;
+      long mergedHi = xHi;
+      long mergedLo = xLo + yHi;
+      if (Long.compareUnsigned(mergedLo, xLo) < 0) {
+        mergedHi += 1;
+      }
+      if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && Long.compareUnsigned(yLo + man, man) < 0) {
+        return Double.NaN;
+      }
+      xHi = mergedHi;
+      xLo = mergedLo;
+    }
+
+    long msb         = xHi >>> 63;
+    long retMantissa = xHi >>> (msb + 9);
+    retExp2 -= 1 ^ msb;
+
+    // halfway ambiguity
+    if (xLo == 0 && (xHi & 0x1FF) == 0 && (retMantissa & 3) == 1) {
+      return Double.NaN;
+    }
+
+    retMantissa += retMantissa & 1;
+    retMantissa >>>= 1;
+    if ((retMantissa >>> 53) > 0) {
+      retMantissa >>>= 1;
+      retExp2 += 1;
+    }
+
+    // subnormal, infinity
+    if (retExp2 <= 0 || retExp2 >= 0x7FF) {
+      return Double.NaN;
     }
+
+    long bits = (retExp2 << 52) | (retMantissa & 0x000FFFFFFFFFFFFFL);
+    if (neg) {
+      bits |= 0x8000000000000000L;
+    }
+    return Double.longBitsToDouble(bits);
   }
 
   public Number finalizeInt(char[] buf, int start, int radixPos, int end) {
@@ -852,7 +1365,13 @@ public class EdnParser {
     }
 
     if (radixPos != -1) {
-      radix = (int) Long.parseLong(new String(buf, start, radixPos - start), 10);
+      if (radixPos - start == 1 && buf[start] >= '2' && buf[start] <= '9') {
+        radix = buf[start] - '0';
+      } else if (radixPos - start == 2 && buf[start] >= '1' && buf[start] <= '3' && buf[start + 1] >= '0' && buf[start + 1] <= '9') {
+        radix = (buf[start] - '0') * 10 + (buf[start + 1] - '0');
+      } else {
+        radix = (int) Long.parseLong(new String(buf, start, radixPos - start), 10);
+      }
       start = radixPos + 1;
     }
 
@@ -882,21 +1401,57 @@ public class EdnParser {
       return BigInt.fromBigInteger(bn);
     }
 
+    // same as Long.parseLong, accumulating negatively to reach Long.MIN_VALUE
+    if (radix >= Character.MIN_RADIX && radix <= Character.MAX_RADIX && start < end) {
+      int     i   = start;
+      boolean neg = false;
+      if (i < end - 1 && (buf[i] == '-' || buf[i] == '+')) {
+        neg = buf[i] == '-';
+        i += 1;
+      }
+      long limit   = neg ? Long.MIN_VALUE : -Long.MAX_VALUE;
+      long multmin = limit / radix;
+      long val     = 0;
+      for (; i < end; ++i) {
+        int digit = Character.digit(buf[i], radix);
+        if (digit < 0 || val < multmin) {
+          break;
+        }
+        val *= radix;
+        if (val < limit + digit) {
+          break;
+        }
+        val -= digit;
+      }
+      if (i == end) {
+        return boxLong(neg ? val : -val);
+      }
+
+      // overflow: BigInt if the rest are digits too
+      for (; i < end && Character.digit(buf[i], radix) >= 0; ++i);
+      if (i == end) {
+        return BigInt.fromBigInteger(new BigInteger(new String(buf, start, end - start), radix));
+      }
+    }
+
+    // invalid digit or radix: only to throw the same exception Clojure does
     String str = new String(buf, start, end - start);
     try {
-      return Long.valueOf(Long.parseLong(str, radix));
-    } catch (Exception e) {
-      BigInteger bn = new BigInteger(str, radix);
-      return BigInt.fromBigInteger(bn);
+      return boxLong(Long.parseLong(str, radix));
+    } catch (NumberFormatException e) {
+      return BigInt.fromBigInteger(new BigInteger(str, radix));
     }
   }
 
   public Number readNumberNegative() {
-    Number n = readNumber();
+    return readNumber(true);
+  }
+
+  public Number negate(Number n) {
     if (n instanceof Long) {
-      return Long.valueOf(-((Long) n).longValue());
+      return boxLong(-((Long) n).longValue());
     } else if (n instanceof Double) {
-      return Double.valueOf(-((Double) n).doubleValue());
+      return boxDouble(-((Double) n).doubleValue());
     } else if (n instanceof BigInt) {
       return BigInt.fromBigInteger(((BigInt) n).toBigInteger().negate());
     } else if (n instanceof BigDecimal) {
@@ -931,31 +1486,39 @@ public class EdnParser {
   }
 
 
+  /////////////
+  // Scratch //
+  /////////////
+
+  /**
+   * Elements of collections being read, innermost collection on top. Each
+   * collection pushes its elements above scratchTop and pops them once it's
+   * built, so the same memory serves all collections at all depths
+   */
+  public void push(Object o) {
+    if (scratchTop == scratch.length) {
+      scratch = Arrays.copyOf(scratch, scratchTop * 2);
+    }
+    scratch[scratchTop] = o;
+    scratchTop += 1;
+  }
+
+  public void pop(int base) {
+    Arrays.fill(scratch, base, scratchTop, null);
+    scratchTop = base;
+  }
+
+
   //////////////
   // readList //
   //////////////
 
-  public IPersistentList readList() {
-    ArrayList acc = new ArrayList();
-
-    while (!isEOF) {
-      Object o = readObjectSafe(throwOnEOF);
-      if (o instanceof UnexpectedCharacter) {
-        if (((UnexpectedCharacter) o).ch == ')') {
-          IPersistentList res = PersistentList.EMPTY;
-          for (ListIterator i = acc.listIterator(acc.size()); i.hasPrevious(); ) {
-            res = (IPersistentList) res.cons(i.previous());
-          }
-          return res;
-        } else {
-          throw new RuntimeException("Unmatched delimiter: "  + ((char) ((UnexpectedCharacter) o).ch));
-        }
-      } else {
-        acc.add(o);
-      }
+  public IPersistentList buildList(int base, int top) {
+    IPersistentList res = PersistentList.EMPTY;
+    for (int i = top - 1; i >= base; --i) {
+      res = (IPersistentList) res.cons(scratch[i]);
     }
-
-    throw new RuntimeException("EOF while reading list: " + toUnfinishedCollString(acc) + context());
+    return res;
   }
 
 
@@ -963,111 +1526,318 @@ public class EdnParser {
   // readVector //
   ////////////////
 
-  public PersistentVector readVector() {
+  /**
+   * Up to 32 elements become the vector's tail as is. Larger vectors get
+   * here only with primitiveVectors, otherwise they move to a transient once
+   * they pass 32 elements, see readObjectSafe
+   */
+  public IPersistentVector buildVector(int base, int top) {
+    if (primitiveVectors && top > base) {
+      IPersistentVector res = buildPrimitiveVector(base, top);
+      if (res != null) {
+        return res;
+      }
+    }
+    if (top - base <= 32) {
+      return LazilyPersistentVector.createOwning(Arrays.copyOfRange(scratch, base, top));
+    }
     ITransientCollection acc = PersistentVector.EMPTY.asTransient();
+    for (int i = base; i < top; ++i) {
+      acc = acc.conj(scratch[i]);
+    }
+    return (IPersistentVector) acc.persistent();
+  }
 
-    while (!isEOF) {
-      Object o = readObjectSafe(throwOnEOF);
-
-      if (o instanceof UnexpectedCharacter) {
-        if (((UnexpectedCharacter) o).ch == ']') {
-          return (PersistentVector) acc.persistent();
-        } else {
-          throw new RuntimeException("Unmatched delimiter: " + ((char) ((UnexpectedCharacter) o).ch));
+  /**
+   * LongVector or DoubleVector if all elements are Long or all are Double,
+   * null otherwise
+   */
+  public IPersistentVector buildPrimitiveVector(int base, int top) {
+    Object[] scratch = this.scratch;
+    if (scratch[base] instanceof Long) {
+      long[] longs = new long[top - base];
+      for (int i = base; i < top; ++i) {
+        if (!(scratch[i] instanceof Long)) {
+          return null;
         }
-      } else {
-        acc = acc.conj(o);
+        longs[i - base] = (Long) scratch[i];
+      }
+      return new LongVector(longs, longs.length, null);
+    } else if (scratch[base] instanceof Double) {
+      double[] doubles = new double[top - base];
+      for (int i = base; i < top; ++i) {
+        if (!(scratch[i] instanceof Double)) {
+          return null;
+        }
+        doubles[i - base] = (Double) scratch[i];
       }
+      return new DoubleVector(doubles, doubles.length, null);
     }
-
-    throw new RuntimeException("EOF while reading vector: " + toUnfinishedCollString(acc.persistent()) + context());
+    return null;
   }
 
+  /**
+   * Reads plain decimal longs or doubles into a primitive array, unboxed.
+   * Returns the vector if it closes before anything else comes up. Otherwise
+   * moves what was read to scratch, opens a vector frame and returns OPENED
+   */
+  public Object readPrimitiveVector() {
+    checkDepth();
+    long[]   longs   = null;
+    double[] doubles = null;
+    int      count   = 0;
 
-  /////////////
-  // readSet //
-  /////////////
+    while (true) {
+      int ch = skipWhitespace();
+      if (ch == ']') {
+        if (longs != null) {
+          return new LongVector(count < longs.length ? Arrays.copyOf(longs, count) : longs, count, null);
+        } else if (doubles != null) {
+          return new DoubleVector(count < doubles.length ? Arrays.copyOf(doubles, count) : doubles, count, null);
+        } else {
+          return PersistentVector.EMPTY;
+        }
+      }
 
-  public PersistentHashSet readSet() {
-    ATransientSet acc = (ATransientSet) PersistentHashSet.EMPTY.asTransient();
-    int count = 0;
+      if (ch != -1) {
+        unread();
+      }
 
-    while (!isEOF) {
-      Object o = readObjectSafe(throwOnEOF);
+      int kind = (ch >= '0' && ch <= '9') || ch == '-' ? readPrimitiveNumber() : NOT_PRIMITIVE;
+      if (kind == PRIMITIVE_LONG && doubles == null) {
+        if (longs == null) {
+          longs = new long[16];
+        } else if (count == longs.length) {
+          longs = Arrays.copyOf(longs, count * 2);
+        }
+        longs[count++] = primitiveLong;
+        continue;
+      } else if (kind == PRIMITIVE_DOUBLE && longs == null) {
+        if (doubles == null) {
+          doubles = new double[16];
+        } else if (count == doubles.length) {
+          doubles = Arrays.copyOf(doubles, count * 2);
+        }
+        doubles[count++] = primitiveDouble;
+        continue;
+      }
 
-      if (o instanceof UnexpectedCharacter) {
-        if (((UnexpectedCharacter) o).ch == '}') {
-          return (PersistentHashSet) acc.persistent();
+      // anything else: continue as a normal vector
+      openColl(FRAME_VECTOR);
+      for (int i = 0; i < count; ++i) {
+        if (longs != null) {
+          push(boxLong(longs[i]));
         } else {
-          throw new RuntimeException("Unmatched delimiter: " + ((char) ((UnexpectedCharacter) o).ch));
+          push(boxDouble(doubles[i]));
         }
-      } else {
-        acc = (ATransientSet) acc.conj(o);
-        if (count + 1 != acc.count()) {
-          throw new RuntimeException("Duplicate key: " + o + " reading set: " + toUnfinishedCollString(acc.persistent()) + context());
-        }
-        count = count + 1;
       }
+      if (kind == PRIMITIVE_LONG) {
+        push(boxLong(primitiveLong));
+      } else if (kind == PRIMITIVE_DOUBLE) {
+        push(boxDouble(primitiveDouble));
+      }
+      return OPENED;
     }
-
-    throw new RuntimeException("EOF while reading set: " + toUnfinishedCollString(acc.persistent()) + context());
   }
 
+  public static final int NOT_PRIMITIVE    = 0;
+  public static final int PRIMITIVE_LONG   = 1;
+  public static final int PRIMITIVE_DOUBLE = 2;
 
-  /////////////
-  // readMap //
-  /////////////
+  public long   primitiveLong;
+  public double primitiveDouble;
 
-  public IPersistentMap readMap(String ns) {
-    ATransientMap acc = (ATransientMap) PersistentArrayMap.EMPTY.asTransient();
-    
-    int count = 0;
+  /**
+   * Reads a plain decimal long or double from readBuf without boxing it,
+   * into primitiveLong/primitiveDouble. Returns NOT_PRIMITIVE and leaves
+   * readPos as is for anything else, including numbers that cross buffer end
+   */
+  public int readPrimitiveNumber() {
+    char[] buf   = readBuf;
+    int    start = readPos;
+    int    pos   = start;
+    int    len   = readLen;
 
-    while (!isEOF) {
-      Object key = readObjectSafe(throwOnEOF);
-      if (key instanceof UnexpectedCharacter) {
-        if (((UnexpectedCharacter) key).ch == '}') {
-          return acc.persistent();
-        } else {
-          throw new RuntimeException("Unmatched delimiter: " + ((char) ((UnexpectedCharacter) key).ch));
-        }
+    boolean neg = false;
+    if (pos < len && buf[pos] == '-') {
+      neg = true;
+      pos += 1;
+    }
+
+    int  digitsStart = pos;
+    long val         = 0;
+    for (; pos < len; ++pos) {
+      char ch = buf[pos];
+      if (ch >= '0' && ch <= '9') {
+        val = val * 10 + ch - '0';
       } else {
-        if (ns != null) {
-          if (key instanceof Keyword) {
-            Keyword kw = (Keyword) key;
-            if (kw.getNamespace() == null) {
-              key = Keyword.intern(ns, kw.getName());
-            } else if (kw.getNamespace().equals("_")) {
-              key = Keyword.intern(null, kw.getName());
+        break;
+      }
+    }
+
+    int digits = pos - digitsStart;
+    if (digits == 0 || digits >= 19 || pos == len) {
+      return NOT_PRIMITIVE;
+    }
+
+    char ch = buf[pos];
+    if (isNumberBoundary(ch)) {
+      // octal
+      if (digits > 1 && buf[digitsStart] == '0') {
+        return NOT_PRIMITIVE;
+      }
+      primitiveLong = neg ? -val : val;
+      readPos = pos;
+      return PRIMITIVE_LONG;
+    }
+
+    if (ch == '.' || ch == 'e' || ch == 'E') {
+      for (; pos < len && !isNumberBoundary(buf[pos]); ++pos);
+      if (pos == len) {
+        return NOT_PRIMITIVE;
+      }
+      double d = parseDouble(buf, start, pos);
+      if (Double.isNaN(d)) {
+        return NOT_PRIMITIVE;
+      }
+      primitiveDouble = d;
+      readPos = pos;
+      return PRIMITIVE_DOUBLE;
+    }
+
+    return NOT_PRIMITIVE;
+  }
+
+
+  /////////////
+  // readSet //
+  /////////////
+
+  public IPersistentSet buildSet(int base, int top) {
+    ITransientCollection acc = PersistentHashSet.EMPTY.asTransient();
+    for (int i = base; i < top; ++i) {
+      acc = acc.conj(scratch[i]);
+    }
+    if (((Counted) acc).count() != top - base) {
+      throw duplicateElement(base, top);
+    }
+    return (IPersistentSet) acc.persistent();
+  }
+
+  /**
+   * For error messages: duplicates are ignored
+   */
+  public IPersistentSet buildSetUnchecked(int base, int top) {
+    ITransientCollection acc = PersistentHashSet.EMPTY.asTransient();
+    for (int i = base; i < top; ++i) {
+      acc = acc.conj(scratch[i]);
+    }
+    return (IPersistentSet) acc.persistent();
+  }
+
+  public RuntimeException duplicateElement(int base, int top) {
+    ITransientCollection acc = PersistentHashSet.EMPTY.asTransient();
+    for (int i = base; i < top; ++i) {
+      acc = acc.conj(scratch[i]);
+      if (((Counted) acc).count() != i - base + 1) {
+        return new RuntimeException("Duplicate key: " + scratch[i] + " reading set: " + toUnfinishedCollString(acc.persistent()) + context());
+      }
+    }
+    return new RuntimeException("Duplicate key reading set" + context());
+  }
+
+
+  /////////////
+  // readMap //
+  /////////////
+
+  public static Object namespacedKey(String ns, Object key) {
+    if (key instanceof Keyword) {
+      Keyword kw = (Keyword) key;
+      if (kw.getNamespace() == null) {
+        return Keyword.intern(ns, kw.getName());
+      } else if (kw.getNamespace().equals("_")) {
+        return Keyword.intern(null, kw.getName());
+      }
+    } else if (key instanceof Symbol) {
+      Symbol s = (Symbol) key;
+      if (s.getNamespace() == null) {
+        return Symbol.intern(ns, s.getName());
+      } else if (s.getNamespace().equals("_")) {
+        return Symbol.intern(null, s.getName());
+      }
+    }
+    return key;
+  }
+
+  /**
+   * Builds map from key/value pairs in scratch[base, top) in one go: up to 8
+   * entries straight into PersistentArrayMap, more into a transient
+   * PersistentHashMap, never an array map that gets promoted halfway
+   */
+  public IPersistentMap buildMap(int base, int top) {
+    Object[] scratch = this.scratch;
+    int      len     = top - base;
+
+    if (len == 0) {
+      return PersistentArrayMap.EMPTY;
+    }
+
+    if (len <= 16) {
+      for (int i = base + 2; i < top; i += 2) {
+        Object key = scratch[i];
+        // same as PersistentArrayMap::equalKey, keywords are interned
+        if (key instanceof Keyword) {
+          for (int j = base; j < i; j += 2) {
+            if (key == scratch[j]) {
+              throw duplicateKey(base, top);
             }
-          } else if (key instanceof Symbol) {
-            Symbol s = (Symbol) key;
-            if (s.getNamespace() == null) {
-              key = Symbol.intern(ns, s.getName());
-            } else if (s.getNamespace().equals("_")) {
-              key = Symbol.intern(null, s.getName());
+          }
+        } else {
+          for (int j = base; j < i; j += 2) {
+            if (Util.equiv(key, scratch[j])) {
+              throw duplicateKey(base, top);
             }
           }
         }
+      }
+      return new PersistentArrayMap(Arrays.copyOfRange(scratch, base, top));
+    }
 
-        Object val = readObjectSafe(throwOnEOF);
-        if (val instanceof UnexpectedCharacter) {
-          if (((UnexpectedCharacter) val).ch == '}') {
-            throw new RuntimeException("Map literal must contain an even number of forms: " + toUnfinishedCollString(acc.persistent()) + ", " + key + context());
-          } else {
-            throw new RuntimeException("Unmatched delimiter: " + ((char) ((UnexpectedCharacter) val).ch));
-          }
-        }
+    ITransientMap acc = PersistentHashMap.EMPTY.asTransient();
+    for (int i = base; i < top; i += 2) {
+      acc = acc.assoc(scratch[i], scratch[i + 1]);
+    }
+    if (acc.count() != len / 2) {
+      throw duplicateKey(base, top);
+    }
+    return acc.persistent();
+  }
 
-        acc = (ATransientMap) acc.assoc(key, val);
-        count = count + 1;
-        if (acc.count() != count) {
-          throw new RuntimeException("Duplicate key: " + key + " reading map: " + toUnfinishedCollString(acc.persistent()) + context());
-        }
-      }
+  /**
+   * For error messages: later duplicates overwrite earlier keys
+   */
+  public IPersistentMap buildMapUnchecked(int base, int top) {
+    ITransientMap acc = PersistentArrayMap.EMPTY.asTransient();
+    for (int i = base; i < top; i += 2) {
+      acc = acc.assoc(scratch[i], scratch[i + 1]);
     }
+    return acc.persistent();
+  }
 
-    throw new RuntimeException("EOF while reading map: " + toUnfinishedCollString(acc.persistent()) + context());
+  /**
+   * Finds first repeated key, reports map as it was before it
+   */
+  public RuntimeException duplicateKey(int base, int top) {
+    ITransientMap acc = PersistentArrayMap.EMPTY.asTransient();
+    for (int i = base; i < top; i += 2) {
+      Object key = scratch[i];
+      acc = acc.assoc(key, scratch[i + 1]);
+      if (acc.count() != (i - base) / 2 + 1) {
+        return new RuntimeException("Duplicate key: " + key + " reading map: " + toUnfinishedCollString(acc.persistent()) + context());
+      }
+    }
+    return new RuntimeException("Duplicate key reading map" + context());
   }
 
 
@@ -1075,20 +1845,20 @@ public class EdnParser {
   // readMeta //
   //////////////
 
-  public Object readMeta() {
-    Object meta = readObject(true);
-
+  public Object normalizeMeta(Object meta) {
     if (meta instanceof Symbol || meta instanceof String) {
-      meta = RT.map(TAG_KEY, meta);
+      return RT.map(TAG_KEY, meta);
     } else if (meta instanceof IPersistentVector) {
-      meta = RT.map(PARAM_TAGS_KEY, meta);
+      return RT.map(PARAM_TAGS_KEY, meta);
     } else if (meta instanceof Keyword) {
-      meta = RT.map(meta, RT.T);
+      return RT.map(meta, RT.T);
     } else if (!(meta instanceof IPersistentMap)) {
       throw new RuntimeException("Metadata must be Symbol, Keyword, String, Map or Vector, got " + toClassString(meta) + context());
     }
+    return meta;
+  }
 
-    Object obj = readObject(true);
+  public Object withMeta(Object meta, Object obj) {
     if (!(obj instanceof IMeta)) {
       throw new RuntimeException("Can't put meta on " + toClassString(obj) + context());
     }
@@ -1113,20 +1883,25 @@ public class EdnParser {
     try {
       return readObject(throwOnEOF);
     } catch (Exception e) {
-      String message = e.getMessage();
-      // exceptions thrown by the parser itself already carry context()
-      if (message != null && message.contains(", offset: ")) {
-        throw Util.sneakyThrow(e);
-      }
-      Exception e2 = null;
-      try {
-        e2 = e.getClass().getDeclaredConstructor(String.class).newInstance(message + context());
-        e2.setStackTrace(e.getStackTrace());
-      } catch (Exception t3) {
-        throw Util.sneakyThrow(e);
-      }
-      throw Util.sneakyThrow(e2);
+      resetStack();
+      throw withContext(e);
+    }
+  }
+
+  public RuntimeException withContext(Exception e) {
+    String message = e.getMessage();
+    // exceptions thrown by the parser itself already carry context()
+    if (message != null && message.contains(", offset: ")) {
+      throw Util.sneakyThrow(e);
+    }
+    Exception e2 = null;
+    try {
+      e2 = e.getClass().getDeclaredConstructor(String.class).newInstance(message + context());
+      e2.setStackTrace(e.getStackTrace());
+    } catch (Exception t3) {
+      throw Util.sneakyThrow(e);
     }
+    throw Util.sneakyThrow(e2);
   }
 
   public Object readObject() {
@@ -1144,41 +1919,314 @@ public class EdnParser {
     throw new RuntimeException("Unexpected character: " + ((char) ch) + context());
   }
 
+  /**
+   * Nesting is kept in frames, not on Java stack: readObjectSafe is a loop
+   * that reads a form (readForm), then hands it to the innermost frame. When
+   * a collection closes, it's built and handed to the frame below, and so
+   * on. Elements of open collections live on scratch. Depth of input is
+   * limited by maxDepth and memory, not by thread's stack size
+   */
+  public static final int FRAME_LIST             = 0;
+  public static final int FRAME_VECTOR           = 1;
+  // vector over 32 elements, scratch[base] is ITransientCollection
+  public static final int FRAME_TRANSIENT_VECTOR = 2;
+  public static final int FRAME_SET              = 3;
+  public static final int FRAME_MAP              = 4;
+  // scratch[base] is namespace
+  public static final int FRAME_NS_MAP           = 5;
+  public static final int FRAME_META             = 6;
+  // scratch[base] is meta
+  public static final int FRAME_META_TARGET      = 7;
+  public static final int FRAME_TAG              = 8;
+  // scratch[base] is tag
+  public static final int FRAME_TAG_VALUE        = 9;
+  public static final int FRAME_DISCARD          = 10;
+
+  public static final Object OPENED = new Object();
+
+  public EdnParser setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+    return this;
+  }
+
+  public void checkDepth() {
+    if (collDepth >= maxDepth) {
+      throw new RuntimeException("Nesting deeper than max depth " + maxDepth + context());
+    }
+  }
+
+  public void pushFrame(int type) {
+    if (frameCount == frameTypes.length) {
+      frameTypes = Arrays.copyOf(frameTypes, frameCount * 2);
+      frameBases = Arrays.copyOf(frameBases, frameCount * 2);
+    }
+    frameTypes[frameCount] = type;
+    frameBases[frameCount] = scratchTop;
+    frameCount += 1;
+  }
+
+  public void openColl(int type) {
+    checkDepth();
+    collDepth += 1;
+    pushFrame(type);
+  }
+
+  public void resetStack() {
+    pop(0);
+    frameCount   = 0;
+    collDepth    = 0;
+    discardDepth = 0;
+  }
+
   public Object readObjectSafe(boolean throwOnEOF) {
     if (reader == null) {
       return null;
     }
 
+    int bottom = frameCount;
+
+    while (true) {
+      Object o;
+      if (frameCount == bottom) {
+        o = readForm(throwOnEOF);
+      } else {
+        int type = frameTypes[frameCount - 1];
+        if (type <= FRAME_NS_MAP) {
+          int base = frameBases[frameCount - 1];
+          // maps check at key position only
+          if (isEOF && (type < FRAME_MAP || (scratchTop - base - (type == FRAME_NS_MAP ? 1 : 0)) % 2 == 0)) {
+            throw new RuntimeException("EOF while reading " + collName(type) + ": " + toUnfinishedCollString(buildUnfinished(type, base)) + context());
+          }
+          o = readForm(this.throwOnEOF);
+        } else {
+          // ^meta, #tag and #_ need a form
+          o = readForm(true);
+          if (o instanceof UnexpectedCharacter) {
+            throw new RuntimeException("Unexpected character: " + ((char) ((UnexpectedCharacter) o).ch) + context());
+          }
+        }
+      }
+
+      if (o == OPENED) {
+        continue;
+      }
+
+      if (frameCount == bottom) {
+        return o;
+      }
+
+      deliver:
+      while (true) {
+        if (frameCount == bottom) {
+          return o;
+        }
+        int top  = frameCount - 1;
+        int type = frameTypes[top];
+        int base = frameBases[top];
+
+        if (o instanceof UnexpectedCharacter) {
+          int ch = ((UnexpectedCharacter) o).ch;
+          if (ch != collCloser(type)) {
+            throw new RuntimeException("Unmatched delimiter: " + ((char) ch));
+          }
+          o = closeColl(type, base);
+          frameCount -= 1;
+          collDepth  -= 1;
+          continue;
+        }
+
+        switch (type) {
+          case FRAME_LIST:
+          case FRAME_SET:
+          case FRAME_MAP: {
+            push(o);
+            break deliver;
+          }
+
+          case FRAME_VECTOR: {
+            if (scratchTop - base < 32 || primitiveVectors) {
+              push(o);
+            } else {
+              ITransientCollection acc = PersistentVector.EMPTY.asTransient();
+              for (int i = base; i < scratchTop; ++i) {
+                acc = acc.conj(scratch[i]);
+              }
+              pop(base);
+              push(acc.conj(o));
+              frameTypes[top] = FRAME_TRANSIENT_VECTOR;
+            }
+            break deliver;
+          }
+
+          case FRAME_TRANSIENT_VECTOR: {
+            scratch[base] = ((ITransientCollection) scratch[base]).conj(o);
+            break deliver;
+          }
+
+          case FRAME_NS_MAP: {
+            if ((scratchTop - base) % 2 == 1) {
+              o = namespacedKey((String) scratch[base], o);
+            }
+            push(o);
+            break deliver;
+          }
+
+          case FRAME_META: {
+            push(normalizeMeta(o));
+            frameTypes[top] = FRAME_META_TARGET;
+            break deliver;
+          }
+
+          case FRAME_META_TARGET: {
+            Object meta = scratch[base];
+            pop(base);
+            frameCount -= 1;
+            o = withMeta(meta, o);
+            continue;
+          }
+
+          case FRAME_TAG: {
+            if (!(o instanceof Symbol)) {
+              throw new RuntimeException("No dispatch macro for: #" + o + context());
+            }
+            push(o);
+            frameTypes[top] = FRAME_TAG_VALUE;
+            break deliver;
+          }
+
+          case FRAME_TAG_VALUE: {
+            Symbol tag = (Symbol) scratch[base];
+            pop(base);
+            frameCount -= 1;
+            o = tagged(tag, o);
+            continue;
+          }
+
+          case FRAME_DISCARD: {
+            frameCount   -= 1;
+            discardDepth -= 1;
+            break deliver;
+          }
+        }
+      }
+    }
+  }
+
+  public static int collCloser(int type) {
+    switch (type) {
+      case FRAME_LIST:
+        return ')';
+      case FRAME_VECTOR:
+      case FRAME_TRANSIENT_VECTOR:
+        return ']';
+      default:
+        return '}';
+    }
+  }
+
+  public static String collName(int type) {
+    switch (type) {
+      case FRAME_LIST:
+        return "list";
+      case FRAME_VECTOR:
+      case FRAME_TRANSIENT_VECTOR:
+        return "vector";
+      case FRAME_SET:
+        return "set";
+      default:
+        return "map";
+    }
+  }
+
+  /**
+   * Builds collection from scratch[base, scratchTop) and pops it
+   */
+  public Object closeColl(int type, int base) {
+    int top = scratchTop;
+    Object res;
+    switch (type) {
+      case FRAME_LIST:
+        res = buildList(base, top);
+        break;
+      case FRAME_VECTOR:
+        res = buildVector(base, top);
+        break;
+      case FRAME_TRANSIENT_VECTOR:
+        res = ((ITransientCollection) scratch[base]).persistent();
+        break;
+      case FRAME_SET:
+        res = buildSet(base, top);
+        break;
+      default: {
+        int from = type == FRAME_NS_MAP ? base + 1 : base;
+        if ((top - from) % 2 == 1) {
+          throw new RuntimeException("Map literal must contain an even number of forms: " + toUnfinishedCollString(buildMapUnchecked(from, top - 1)) + ", " + scratch[top - 1] + context());
+        }
+        res = buildMap(from, top);
+      }
+    }
+    pop(base);
+    return res;
+  }
+
+  /**
+   * What's been read so far, for error messages
+   */
+  public Object buildUnfinished(int type, int base) {
+    int top = scratchTop;
+    switch (type) {
+      case FRAME_LIST:
+        return buildList(base, top);
+      case FRAME_VECTOR:
+        return buildVector(base, top);
+      case FRAME_TRANSIENT_VECTOR:
+        return ((ITransientCollection) scratch[base]).persistent();
+      case FRAME_SET:
+        return buildSetUnchecked(base, top);
+      case FRAME_NS_MAP:
+        return buildMapUnchecked(base + 1, top);
+      default:
+        return buildMapUnchecked(base, top);
+    }
+  }
+
+  public Object readForm(boolean throwOnEOF) {
     while (true) {
       int ch1 = skipWhitespace();
 
-      switch (ch1) {
-        case '"': {
+      switch (tokenType(ch1)) {
+        case TOKEN_STRING: {
           return readString();
         }
 
-        case ':': {
+        case TOKEN_KEYWORD: {
           return readKeyword();
         }
 
-        case '{': {
-          return readMap(null);
+        case TOKEN_MAP: {
+          openColl(FRAME_MAP);
+          return OPENED;
         }
 
-        case '[': {
-          return readVector();
+        case TOKEN_VECTOR: {
+          if (primitiveVectors) {
+            return readPrimitiveVector();
+          }
+          openColl(FRAME_VECTOR);
+          return OPENED;
         }
 
-        case '(': {
-          return readList();
+        case TOKEN_LIST: {
+          openColl(FRAME_LIST);
+          return OPENED;
         }
 
-        case ';': {
+        case TOKEN_COMMENT: {
           skip(ch -> '\n' != ch && '\r' != ch);
           continue;
         }
 
-        case '-': {
+        case TOKEN_MINUS: {
           int ch2 = read();
           unread();
 
@@ -1191,15 +2239,16 @@ public class EdnParser {
           }
         }
 
-        case '^': {
-          return readMeta();
+        case TOKEN_META: {
+          pushFrame(FRAME_META);
+          return OPENED;
         }
 
-        case '\\': {
+        case TOKEN_CHARACTER: {
           return readCharacter();
         }
 
-        case '+': {
+        case TOKEN_PLUS: {
           int ch2 = read();
           unread();
 
@@ -1212,7 +2261,7 @@ public class EdnParser {
           }
         }
 
-        case '#': {
+        case TOKEN_DISPATCH: {
           int ch2 = read();
 
           if (ch2 == -1) {
@@ -1220,17 +2269,14 @@ public class EdnParser {
           }
 
           if (ch2 == '{') {
-            return readSet();
+            openColl(FRAME_SET);
+            return OPENED;
           }
 
           if (ch2 == '_') {
             discardDepth += 1;
-            try {
-              readObject(true);
-            } finally {
-              discardDepth -= 1;
-            }
-            continue;
+            pushFrame(FRAME_DISCARD);
+            return OPENED;
           }
 
           if (ch2 == '#') {
@@ -1254,14 +2300,17 @@ public class EdnParser {
               throw new RuntimeException("Namespaced map must specify a map: " + ns + context());
             }
 
-            return readMap(ns.getName());
+            openColl(FRAME_NS_MAP);
+            push(ns.getName());
+            return OPENED;
           }
 
           unread();
-          return readTagged();
+          pushFrame(FRAME_TAG);
+          return OPENED;
         }
 
-        case -1: {
+        case TOKEN_EOF: {
           if (throwOnEOF) {
             throw new RuntimeException("EOF while reading" + context());
           } else {
@@ -1269,60 +2318,539 @@ public class EdnParser {
           }
         }
 
+        case TOKEN_NUMBER: {
+          unread();
+          return readNumber();
+        }
+
+        case TOKEN_SYMBOL: {
+          unread();
+          return readSymbol();
+        }
+
         default: {
-          if ('0' <= ch1 && ch1 <= '9') {
-            unread();
-            return readNumber();
-          } else if (!isBoundary(ch1)) {
+          return new UnexpectedCharacter(ch1);
+        }
+      }
+    }
+  }
+
+
+  ////////////////
+  // readEvents //
+  ////////////////
+
+  /**
+   * Reads next top-level form, reporting it to handler instead of building
+   * Clojure data. Returns false on EOF.
+   *
+   * Dispatch is readForm's: it opens frames for collections, ^meta, #tag and
+   * #_ the same way it does for readObject, only elements are counted in
+   * frameBases instead of being pushed to scratch. Nesting lives on the frame
+   * stack, not on Java stack. Plain longs and doubles are read with
+   * readPrimitiveNumber and never boxed, #_ is skipped with skipObject
+   */
+  public boolean readEvents(EdnEventHandler handler) {
+    if (reader == null) {
+      return false;
+    }
+    boolean primitiveVectors = this.primitiveVectors;
+    this.primitiveVectors = false;
+    try {
+      int bottom = frameCount;
+
+      while (true) {
+        int type = frameCount == bottom ? -1 : frameTypes[frameCount - 1];
+        int ch   = peekForm();
+
+        if (ch == -1) {
+          if (type == -1) {
+            return false;
+          } else if (type <= FRAME_NS_MAP) {
+            throw new RuntimeException("EOF while reading " + collName(type) + context());
+          } else {
+            throw new RuntimeException("EOF while reading" + context());
+          }
+        }
+
+        Object o;
+        if (type == FRAME_TAG) {
+          o = readForm(true);
+          if (o instanceof UnexpectedCharacter) {
+            throw new RuntimeException("Unexpected character: " + ((char) ((UnexpectedCharacter) o).ch) + context());
+          } else if (!(o instanceof Symbol)) {
+            throw new RuntimeException("No dispatch macro for: #" + (o == OPENED ? String.valueOf(readBuf[readPos - 1]) : o) + context());
+          }
+          handler.tag((Symbol) o);
+          frameTypes[frameCount - 1] = FRAME_TAG_VALUE;
+          continue;
+        }
+
+        int kind = (ch >= '0' && ch <= '9') || ch == '-' ? readPrimitiveNumber() : NOT_PRIMITIVE;
+        if (kind == PRIMITIVE_LONG) {
+          handler.longValue(primitiveLong);
+        } else if (kind == PRIMITIVE_DOUBLE) {
+          handler.doubleValue(primitiveDouble);
+        } else {
+          o = readForm(true);
+
+          if (o == OPENED) {
+            int top = frameCount - 1;
+            // element count
+            frameBases[top] = 0;
+            switch (frameTypes[top]) {
+              case FRAME_MAP:
+                handler.startMap(null);
+                break;
+              case FRAME_NS_MAP:
+                handler.startMap((String) scratch[scratchTop - 1]);
+                pop(scratchTop - 1);
+                break;
+              case FRAME_VECTOR:
+                handler.startVector();
+                break;
+              case FRAME_LIST:
+                handler.startList();
+                break;
+              case FRAME_SET:
+                handler.startSet();
+                break;
+              case FRAME_META:
+                handler.startMeta();
+                break;
+              case FRAME_DISCARD: {
+                frameCount   -= 1;
+                discardDepth -= 1;
+                int res = skipObject(EdnScanner.NORMAL);
+                if (res == -1) {
+                  throw new RuntimeException("EOF while reading" + context());
+                } else if (res != SKIPPED) {
+                  throw new RuntimeException("Unexpected character: " + ((char) res) + context());
+                }
+                break;
+              }
+            }
+            continue;
+          }
+
+          if (o instanceof UnexpectedCharacter) {
+            char close = (char) ((UnexpectedCharacter) o).ch;
+            if (type == -1 || type > FRAME_NS_MAP) {
+              throw new RuntimeException("Unexpected character: " + close + context());
+            } else if (close != collCloser(type)) {
+              throw new RuntimeException("Unmatched delimiter: " + close + context());
+            } else if (type >= FRAME_MAP && frameBases[frameCount - 1] % 2 == 1) {
+              throw new RuntimeException("Map literal must contain an even number of forms" + context());
+            }
+            switch (type) {
+              case FRAME_LIST:
+                handler.endList();
+                break;
+              case FRAME_VECTOR:
+                handler.endVector();
+                break;
+              case FRAME_SET:
+                handler.endSet();
+                break;
+              default:
+                handler.endMap();
+            }
+            frameCount -= 1;
+            collDepth  -= 1;
+          } else {
+            emitValue(handler, o);
+          }
+        }
+
+        // a form has ended: count it in the innermost collection
+        deliver:
+        while (frameCount > bottom) {
+          int top = frameCount - 1;
+          switch (frameTypes[top]) {
+            case FRAME_META:
+              frameTypes[top] = FRAME_META_TARGET;
+              break deliver;
+            case FRAME_META_TARGET:
+            case FRAME_TAG_VALUE:
+              frameCount -= 1;
+              continue;
+            default:
+              frameBases[top] += 1;
+              break deliver;
+          }
+        }
+
+        if (frameCount == bottom) {
+          return true;
+        }
+      }
+    } catch (Exception e) {
+      resetStack();
+      throw withContext(e);
+    } finally {
+      this.primitiveVectors = primitiveVectors;
+    }
+  }
+
+  /**
+   * Next char that is not whitespace or comment, without consuming it.
+   * -1 on EOF
+   */
+  public int peekForm() {
+    while (true) {
+      int ch = skipWhitespace();
+      if (ch == ';') {
+        skip(c -> '\n' != c && '\r' != c);
+        continue;
+      }
+      if (ch != -1) {
+        unread();
+      }
+      return ch;
+    }
+  }
+
+  /**
+   * Scalar returned by readForm. Longs and doubles get here only when
+   * readPrimitiveNumber couldn't read them (e.g. +1, 0x10, across buffer end)
+   */
+  public void emitValue(EdnEventHandler handler, Object o) {
+    if (o == null) {
+      handler.nullValue();
+    } else if (o instanceof String) {
+      handler.string((String) o);
+    } else if (o instanceof Keyword) {
+      handler.keyword((Keyword) o);
+    } else if (o instanceof Symbol) {
+      handler.symbol((Symbol) o);
+    } else if (o instanceof Long) {
+      handler.longValue((Long) o);
+    } else if (o instanceof Double) {
+      handler.doubleValue((Double) o);
+    } else if (o instanceof Number) {
+      handler.number((Number) o);
+    } else if (o instanceof Boolean) {
+      handler.booleanValue((Boolean) o);
+    } else if (o instanceof Character) {
+      handler.character((Character) o);
+    } else {
+      throw new RuntimeException("Unexpected value: " + o + context());
+    }
+  }
+
+
+  ////////////////
+  // skipObject //
+  ////////////////
+
+  public static final int SKIPPED = -2;
+
+  /**
+   * Skips next form without reading it: only brackets, strings, comments
+   * and character literals are tracked, nothing is interned, allocated or
+   * validated. Returns SKIPPED, -1 on EOF or unexpected character (e.g.
+   * closing bracket). `state` is EdnScanner.NORMAL, or EdnScanner.HASH if
+   * `#` was already consumed.
+   */
+  public int skipObject(int state) {
+    if (reader == null) {
+      return -1;
+    }
+
+    EdnScanner scanner = skipScanner;
+    if (scanner == null) {
+      scanner = skipScanner = new EdnScanner(0, 1, 0);
+      scanner.maxEnds = 1;
+    }
+    scanner.state = state;
+    scanner.depth = 0;
+    scanner.absorb = 0;
+    scanner.endsCount = 0;
+    scanner.lastEnd = 0;
+    scanner.closedAt = -1;
+
+    while (true) {
+      scanner.scan(readBuf, readPos, readLen);
+      if (scanner.endsCount > 0) {
+        readPos = scanner.ends[0];
+        return SKIPPED;
+      }
+      if (scanner.closedAt != -1) {
+        readPos = scanner.closedAt;
+        return readBuf[readPos - 1];
+      }
+      readPos = readLen;
+      if (isEOF) {
+        scanner.finish(readLen);
+        if (scanner.endsCount > 0) {
+          return SKIPPED;
+        }
+        if (scanner.state != EdnScanner.NORMAL || scanner.depth > 0 || scanner.absorb > 0) {
+          throw new RuntimeException("EOF while skipping" + context());
+        }
+        return -1;
+      }
+      nextBuffer();
+    }
+  }
+
+
+  //////////////////
+  // readSelected //
+  //////////////////
+
+  public static final Object SKIPPED_VALUE = new Object();
+
+  /**
+   * Same as readNext, but only keeps parts listed in selection. Returns null
+   * if top-level form is not a map
+   */
+  public Object readNextSelected(Object selection) {
+    try {
+      Object o = readSelected(selection, throwOnEOF);
+      if (o == SKIPPED_VALUE) {
+        return null;
+      } else if (o instanceof UnexpectedCharacter) {
+        throw new RuntimeException("Unexpected character: " + ((char) ((UnexpectedCharacter) o).ch) + context());
+      }
+      return o;
+    } catch (Exception e) {
+      resetStack();
+      throw withContext(e);
+    }
+  }
+
+  /**
+   * Reads next form, keeping only parts listed in selection. Selection is
+   * a map of key -> nested selection, or Boolean.TRUE to read the whole value.
+   * Only map literals are descended into, any other value under a nested
+   * selection is skipped. Skipped values are returned as SKIPPED_VALUE
+   */
+  public Object readSelected(Object selection, boolean throwOnEOF) {
+    if (selection == Boolean.TRUE) {
+      return readObjectSafe(throwOnEOF);
+    }
+
+    if (reader == null) {
+      return null;
+    }
+
+    while (true) {
+      int ch1 = skipWhitespace();
+
+      switch (ch1) {
+        case '{': {
+          return readMapSelected(null, (ILookup) selection);
+        }
+
+        case ';': {
+          skip(ch -> '\n' != ch && '\r' != ch);
+          continue;
+        }
+
+        case '#': {
+          int ch2 = read();
+
+          if (ch2 == ':') {
+            int ch3 = skipWhitespace();
+            if (ch3 == -1) {
+              throw new RuntimeException("EOF while reading namespaced map" + context());
+            }
             unread();
-            return readSymbol();
+            Keyword ns = readKeyword();
+
+            if (ns.getNamespace() != null) {
+              throw new RuntimeException("Namespaced map should use non-namespaced keyword: " + ns + context());
+            }
+
+            int ch4 = skipWhitespace();
+            if (ch4 != '{') {
+              throw new RuntimeException("Namespaced map must specify a map: " + ns + context());
+            }
+
+            return readMapSelected(ns.getName(), (ILookup) selection);
           }
 
-          return new UnexpectedCharacter(ch1);
+          if (ch2 == -1) {
+            throw new RuntimeException("EOF while reading dispatch macro" + context());
+          }
+
+          if (ch2 == '_') {
+            int res = skipObject(EdnScanner.NORMAL);
+            if (res == -1) {
+              throw new RuntimeException("EOF while reading" + context());
+            } else if (res != SKIPPED) {
+              return new UnexpectedCharacter(res);
+            }
+            continue;
+          }
+
+          unread();
+          int res = skipObject(EdnScanner.HASH);
+          return res == SKIPPED ? SKIPPED_VALUE : new UnexpectedCharacter(res);
+        }
+
+        case '^': {
+          Object meta = readObjectSafe(true);
+          if (meta instanceof UnexpectedCharacter) {
+            return meta;
+          }
+          meta = normalizeMeta(meta);
+          Object o = readSelected(selection, true);
+          if (o == SKIPPED_VALUE || o instanceof UnexpectedCharacter) {
+            return o;
+          }
+          return withMeta(meta, o);
+        }
+
+        case -1: {
+          if (throwOnEOF) {
+            throw new RuntimeException("EOF while reading" + context());
+          } else {
+            return eofValue;
+          }
+        }
+
+        default: {
+          unread();
+          int res = skipObject(EdnScanner.NORMAL);
+          if (res == -1) {
+            throw new RuntimeException("EOF while reading" + context());
+          }
+          return res == SKIPPED ? SKIPPED_VALUE : new UnexpectedCharacter(res);
         }
       }
     }
   }
 
+  public IPersistentMap readMapSelected(String ns, ILookup selection) {
+    ATransientMap acc = (ATransientMap) PersistentArrayMap.EMPTY.asTransient();
+
+    int count = 0;
+
+    while (!isEOF) {
+      Object key = readObjectSafe(true);
+      if (key instanceof UnexpectedCharacter) {
+        if (((UnexpectedCharacter) key).ch == '}') {
+          return acc.persistent();
+        } else {
+          throw new RuntimeException("Unmatched delimiter: " + ((char) ((UnexpectedCharacter) key).ch) + context());
+        }
+      }
+
+      if (ns != null) {
+        key = namespacedKey(ns, key);
+      }
+
+      Object keySelection = selection.valAt(key);
+      Object val;
+      if (keySelection == null) {
+        int res = skipObject(EdnScanner.NORMAL);
+        if (res == -1) {
+          break;
+        }
+        val = res == SKIPPED ? SKIPPED_VALUE : new UnexpectedCharacter(res);
+      } else {
+        val = readSelected(keySelection, true);
+      }
+
+      if (val instanceof UnexpectedCharacter) {
+        if (((UnexpectedCharacter) val).ch == '}') {
+          throw new RuntimeException("Map literal must contain an even number of forms: " + toUnfinishedCollString(acc.persistent()) + ", " + key + context());
+        } else {
+          throw new RuntimeException("Unmatched delimiter: " + ((char) ((UnexpectedCharacter) val).ch) + context());
+        }
+      }
+
+      if (val == SKIPPED_VALUE) {
+        continue;
+      }
+
+      acc = (ATransientMap) acc.assoc(key, val);
+      count = count + 1;
+      if (acc.count() != count) {
+        throw new RuntimeException("Duplicate key: " + key + " reading map: " + toUnfinishedCollString(acc.persistent()) + context());
+      }
+    }
+
+    throw new RuntimeException("EOF while reading map: " + toUnfinishedCollString(acc.persistent()) + context());
+  }
+
 
   //////////
   // Misc //
   //////////
 
-  public static final BitSet whitespaceMask = new BitSet(0x30);
-  public static final BitSet boundaryMask = new BitSet(0x80);
-  public static final BitSet numberBoundaryMask = new BitSet(0x80);
-  
+  /**
+   * Class of every ASCII char, one lookup for both per-char loops and
+   * readForm dispatch: low bits are WHITESPACE/BOUNDARY/NUMBER_BOUNDARY
+   * flags, high bits are TOKEN_* type of a form that starts with this char.
+   * Chars above ASCII are TOKEN_SYMBOL and not boundaries
+   */
+  public static final byte[] CHAR_CLASS = new byte[0x80];
+
+  public static final int WHITESPACE      = 1;
+  public static final int BOUNDARY        = 2;
+  public static final int NUMBER_BOUNDARY = 4;
+  public static final int TOKEN_SHIFT     = 3;
+
+  public static final int TOKEN_SYMBOL     = 0;
+  public static final int TOKEN_NUMBER     = 1;
+  public static final int TOKEN_STRING     = 2;
+  public static final int TOKEN_KEYWORD    = 3;
+  public static final int TOKEN_MAP        = 4;
+  public static final int TOKEN_VECTOR     = 5;
+  public static final int TOKEN_LIST       = 6;
+  public static final int TOKEN_COMMENT    = 7;
+  public static final int TOKEN_MINUS      = 8;
+  public static final int TOKEN_PLUS       = 9;
+  public static final int TOKEN_META       = 10;
+  public static final int TOKEN_CHARACTER  = 11;
+  public static final int TOKEN_DISPATCH   = 12;
+  public static final int TOKEN_UNEXPECTED = 13;
+  public static final int TOKEN_EOF        = 14;
+
   static {
     // ASCII whitespace as in Character.isWhitespace
-    whitespaceMask.set('\t');
-    whitespaceMask.set('\n');
-    whitespaceMask.set(0x0B); // VERTICAL TAB
-    whitespaceMask.set('\f');
-    whitespaceMask.set('\r');
-    whitespaceMask.set(0x1C, 0x20); // FILE/GROUP/RECORD/UNIT SEPARATOR
-    whitespaceMask.set(' ');
-    whitespaceMask.set(',');
-
-    boundaryMask.or(whitespaceMask);
-    boundaryMask.set('"');
-    boundaryMask.set('(');
-    boundaryMask.set(')');
-    boundaryMask.set(';');
-    boundaryMask.set('[');
-    boundaryMask.set('\\');
-    boundaryMask.set(']');
-    boundaryMask.set('^');
-    boundaryMask.set('{');
-    boundaryMask.set('}');
-
-    numberBoundaryMask.or(boundaryMask);
-    numberBoundaryMask.set('#');
-    numberBoundaryMask.set(':');
+    setClass(WHITESPACE | BOUNDARY | NUMBER_BOUNDARY, TOKEN_UNEXPECTED, '\t', '\n', '\f', '\r', ' ', ',');
+    setClass(WHITESPACE | BOUNDARY | NUMBER_BOUNDARY, TOKEN_UNEXPECTED, (char) 0x0B); // VERTICAL TAB
+    setClass(WHITESPACE | BOUNDARY | NUMBER_BOUNDARY, TOKEN_UNEXPECTED, (char) 0x1C, (char) 0x1D, (char) 0x1E, (char) 0x1F); // FILE/GROUP/RECORD/UNIT SEPARATOR
+
+    setClass(BOUNDARY | NUMBER_BOUNDARY, TOKEN_UNEXPECTED, ')', ']', '}');
+    setClass(BOUNDARY | NUMBER_BOUNDARY, TOKEN_STRING,     '"');
+    setClass(BOUNDARY | NUMBER_BOUNDARY, TOKEN_LIST,       '(');
+    setClass(BOUNDARY | NUMBER_BOUNDARY, TOKEN_COMMENT,    ';');
+    setClass(BOUNDARY | NUMBER_BOUNDARY, TOKEN_VECTOR,     '[');
+    setClass(BOUNDARY | NUMBER_BOUNDARY, TOKEN_CHARACTER,  '\\');
+    setClass(BOUNDARY | NUMBER_BOUNDARY, TOKEN_META,       '^');
+    setClass(BOUNDARY | NUMBER_BOUNDARY, TOKEN_MAP,        '{');
+
+    setClass(NUMBER_BOUNDARY, TOKEN_DISPATCH, '#');
+    setClass(NUMBER_BOUNDARY, TOKEN_KEYWORD,  ':');
+
+    setClass(0, TOKEN_MINUS, '-');
+    setClass(0, TOKEN_PLUS,  '+');
+    setClass(0, TOKEN_NUMBER, '0', '1', '2', '3', '4', '5', '6', '7', '8', '9');
+  }
+
+  public static void setClass(int flags, int token, char... chars) {
+    for (char ch: chars) {
+      CHAR_CLASS[ch] = (byte) (flags | (token << TOKEN_SHIFT));
+    }
   }
 
   public static boolean isWhitespace(int ch) {
-    return ch < 0x30 && whitespaceMask.get(ch);
+    return ch < 0x80 && (CHAR_CLASS[ch] & WHITESPACE) != 0;
+  }
+
+  /**
+   * TOKEN_* type of a form that starts with ch, TOKEN_EOF for -1
+   */
+  public static int tokenType(int ch) {
+    if (ch < 0) {
+      return TOKEN_EOF;
+    }
+    return ch < 0x80 ? CHAR_CLASS[ch] >> TOKEN_SHIFT : TOKEN_SYMBOL;
   }
 
   public static boolean isHexDigit(int ch) {
@@ -1330,11 +2858,11 @@ public class EdnParser {
   }
 
   public static boolean isBoundary(int ch) {
-    return ch < 0x80 && boundaryMask.get(ch);
+    return ch < 0x80 && (CHAR_CLASS[ch] & BOUNDARY) != 0;
   }
 
   public static boolean isNumberBoundary(int ch) {
-    return ch < 0x80 && numberBoundaryMask.get(ch);
+    return ch < 0x80 && (CHAR_CLASS[ch] & NUMBER_BOUNDARY) != 0;
   }
 
   public static String toClassString(Object o) {
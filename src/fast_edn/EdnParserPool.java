@@ -0,0 +1,86 @@
+package fast_edn;
+
+import clojure.lang.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Thread-safe pool of parsers created with the same options.
+ *
+ * Parsers live in a fixed number of slots that are taken and returned with
+ * CAS, so there's no locking (virtual threads are never pinned) and the
+ * number of retained parsers doesn't depend on the number of threads. When
+ * all slots are taken, a fresh parser is created and thrown away after use.
+ */
+public class EdnParserPool {
+  /**
+   * Returned parsers drop buffers that grew past this size
+   */
+  public static final int MAX_RETAINED = 1024;
+
+  public final IFn factory;
+  public final AtomicReferenceArray<EdnParser> slots;
+
+  /**
+   * factory is a function of no args that returns a new EdnParser
+   */
+  public EdnParserPool(IFn factory, int size) {
+    this.factory = factory;
+    this.slots = new AtomicReferenceArray<>(Math.max(1, size));
+  }
+
+  public int startSlot() {
+    return (int) ((Thread.currentThread().getId() & Integer.MAX_VALUE) % slots.length());
+  }
+
+  public EdnParser acquire() {
+    int len   = slots.length();
+    int start = startSlot();
+    for (int i = 0; i < len; ++i) {
+      int idx = (start + i) % len;
+      EdnParser parser = slots.get(idx);
+      if (parser != null && slots.compareAndSet(idx, parser, null)) {
+        return parser;
+      }
+    }
+    return (EdnParser) factory.invoke();
+  }
+
+  public void release(EdnParser parser) {
+    // grown with :max-buffer
+    if (parser.ownBuf.length > parser.bufferSize) {
+      parser.ownBuf = new char[parser.bufferSize];
+    }
+    parser.setReader(null);
+    if (parser.accumulator.length > MAX_RETAINED) {
+      parser.accumulator = new char[32];
+    }
+    if (parser.scratch.length > MAX_RETAINED) {
+      parser.scratch = new Object[32];
+    }
+    if (parser.frameTypes.length > MAX_RETAINED) {
+      parser.frameTypes = new int[16];
+      parser.frameBases = new int[16];
+    }
+
+    int len   = slots.length();
+    int start = startSlot();
+    for (int i = 0; i < len; ++i) {
+      int idx = (start + i) % len;
+      if (slots.get(idx) == null && slots.compareAndSet(idx, null, parser)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads one object from string with a pooled parser
+   */
+  public Object read(String s) {
+    EdnParser parser = acquire();
+    try {
+      return parser.setInput(s).readNext();
+    } finally {
+      release(parser);
+    }
+  }
+}
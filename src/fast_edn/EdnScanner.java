@@ -0,0 +1,300 @@
+package fast_edn;
+
+import java.util.*;
+
+/**
+ * Finds where forms end without parsing them. Tracks only what is needed
+ * to match brackets: strings with escapes, comments, character literals.
+ *
+ * Forms are counted at `targetDepth` (0 = top-level forms, 1 = children of
+ * a top-level collection). Prefixes `^meta`, `#tag`, `#_` and `#:ns` are
+ * glued to the form that follows them, so every counted form can be read
+ * by EdnParser on its own.
+ *
+ * Scanner is resumable: input can be fed in several chunks.
+ */
+public class EdnScanner {
+  public static final int NORMAL        = 0;
+  public static final int STRING        = 1;
+  public static final int STRING_ESCAPE = 2;
+  public static final int COMMENT       = 3;
+  public static final int TOKEN         = 4;
+  public static final int NUMBER        = 5;
+  public static final int CHARACTER     = 6;
+  public static final int HASH          = 7;
+  public static final int SIGN          = 8;
+
+  public final int targetDepth;
+  public final int step;
+  public final int minGap;
+
+  public int     state;
+  public int     depth;
+  public int     absorb;
+  public long    forms;
+
+  public int     lastEnd;
+  public int[]   ends;
+  public int     endsCount;
+  public int     closedAt = -1;
+  public int     maxEnds = Integer.MAX_VALUE;
+
+  /**
+   * If set, also records structure at every depth, see EdnIndex::build
+   */
+  public EdnIndex index;
+
+  /**
+   * Records end position of every `step`-th form at `targetDepth`, but only
+   * if it's at least `minGap` chars after the previously recorded one.
+   */
+  public EdnScanner(int targetDepth, int step, int minGap) {
+    this.targetDepth = targetDepth;
+    this.step = step;
+    this.minGap = minGap;
+    this.state = NORMAL;
+    this.ends = new int[16];
+  }
+
+  public void formEnd(int end) {
+    if (index != null) {
+      index.end(end, depth);
+    }
+
+    if (depth != targetDepth) {
+      return;
+    }
+
+    if (absorb > 0) {
+      absorb -= 1;
+      return;
+    }
+
+    forms += 1;
+    if (forms % step == 0 && end - lastEnd >= minGap) {
+      if (endsCount == ends.length) {
+        ends = Arrays.copyOf(ends, endsCount * 2);
+      }
+      ends[endsCount] = end;
+      endsCount += 1;
+      lastEnd = end;
+    }
+  }
+
+  /**
+   * Scans buf[from, to). Positions reported in `ends` are relative to buf.
+   * Stops after a closing bracket that brings depth below targetDepth,
+   * its position + 1 is stored in `closedAt`. Also stops once `maxEnds`
+   * positions are recorded
+   */
+  public EdnScanner scan(char[] buf, int from, int to) {
+    int state = this.state;
+    int pos   = from;
+
+    while (pos < to && endsCount < maxEnds) {
+      char ch = buf[pos];
+
+      switch (state) {
+        case NORMAL: {
+          if (EdnParser.isWhitespace(ch)) {
+            break;
+          }
+          switch (ch) {
+            case '"':
+              state = STRING;
+              break;
+            case ';':
+              state = COMMENT;
+              break;
+            case '(':
+            case '[':
+            case '{':
+              depth += 1;
+              if (index != null) {
+                index.open(pos, depth, ch);
+              }
+              break;
+            case ')':
+            case ']':
+            case '}':
+              depth -= 1;
+              if (depth < targetDepth) {
+                // collection that contained target forms has ended
+                closedAt = pos + 1;
+                this.state = NORMAL;
+                return this;
+              }
+              if (index != null) {
+                index.close(ch);
+              }
+              formEnd(pos + 1);
+              break;
+            case '\\':
+              state = CHARACTER;
+              break;
+            case '^':
+              if (depth == targetDepth) {
+                absorb += 1;
+              }
+              if (index != null) {
+                index.absorb(depth);
+              }
+              break;
+            case '#':
+              state = HASH;
+              break;
+            case '+':
+            case '-':
+              state = SIGN;
+              break;
+            default:
+              state = ('0' <= ch && ch <= '9') ? NUMBER : TOKEN;
+          }
+          break;
+        }
+
+        case STRING: {
+          for (; pos < to; ++pos) {
+            ch = buf[pos];
+            if (ch == '"' || ch == '\\') {
+              break;
+            }
+          }
+          if (pos == to) {
+            continue;
+          }
+          if (ch == '"') {
+            state = NORMAL;
+            formEnd(pos + 1);
+          } else {
+            state = STRING_ESCAPE;
+          }
+          break;
+        }
+
+        case STRING_ESCAPE: {
+          state = STRING;
+          break;
+        }
+
+        case COMMENT: {
+          for (; pos < to; ++pos) {
+            ch = buf[pos];
+            if (ch == '\n' || ch == '\r') {
+              state = NORMAL;
+              break;
+            }
+          }
+          break;
+        }
+
+        case CHARACTER: {
+          // first char after \ is always part of the literal, even \" or \]
+          state = TOKEN;
+          break;
+        }
+
+        case SIGN: {
+          if (EdnParser.isBoundary(ch)) {
+            state = NORMAL;
+            formEnd(pos);
+            continue;
+          }
+          state = ('0' <= ch && ch <= '9') ? NUMBER : TOKEN;
+          break;
+        }
+
+        case NUMBER: {
+          for (; pos < to && !EdnParser.isNumberBoundary(buf[pos]); ++pos);
+          if (pos < to) {
+            state = NORMAL;
+            formEnd(pos);
+          }
+          continue;
+        }
+
+        case TOKEN: {
+          for (; pos < to && !EdnParser.isBoundary(buf[pos]); ++pos);
+          if (pos < to) {
+            state = NORMAL;
+            formEnd(pos);
+          }
+          continue;
+        }
+
+        case HASH: {
+          state = NORMAL;
+          if (ch == '{') {
+            depth += 1;
+            if (index != null) {
+              index.open(pos, depth, ch);
+            }
+          } else if (ch == '#') {
+            // ##Inf
+            state = TOKEN;
+          } else if (ch == '_' || ch == ':') {
+            // discard, namespaced map
+            if (depth == targetDepth) {
+              absorb += 1;
+            }
+            if (index != null) {
+              index.absorb(depth);
+            }
+          } else {
+            // tagged literal: tag symbol gets absorbed, value is the form
+            if (depth == targetDepth) {
+              absorb += 1;
+            }
+            if (index != null) {
+              index.absorb(depth);
+            }
+            continue;
+          }
+          break;
+        }
+      }
+
+      pos += 1;
+    }
+
+    this.state = state;
+    return this;
+  }
+
+  /**
+   * Call at the end of input: completes a token that ends at EOF
+   */
+  public EdnScanner finish(int end) {
+    if (state == TOKEN || state == NUMBER || state == SIGN) {
+      state = NORMAL;
+      formEnd(end);
+    }
+    return this;
+  }
+
+  /**
+   * Returns positions in buf[from, to) where forms at targetDepth end, at
+   * least minGap chars apart. Every position is a safe place to split input
+   * for separate parsers.
+   */
+  public static int[] split(char[] buf, int from, int to, int targetDepth, int step, int minGap) {
+    EdnScanner scanner = new EdnScanner(targetDepth, step, minGap);
+    scanner.lastEnd = from;
+    scanner.scan(buf, from, to).finish(to);
+    return Arrays.copyOf(scanner.ends, scanner.endsCount);
+  }
+
+  /**
+   * Same as split, but for children of a collection that opens at buf[from].
+   * Last element of returned array is the position after its closing
+   * bracket, or -1 if collection is not closed by `to`.
+   */
+  public static int[] splitChildren(char[] buf, int from, int to, int step, int minGap) {
+    EdnScanner scanner = new EdnScanner(1, step, minGap);
+    scanner.lastEnd = from;
+    scanner.scan(buf, from, to);
+    int[] res = Arrays.copyOf(scanner.ends, scanner.endsCount + 1);
+    res[scanner.endsCount] = scanner.closedAt;
+    return res;
+  }
+}
@@ -0,0 +1,579 @@
+package fast_edn;
+
+import clojure.lang.*;
+import java.io.*;
+import java.math.*;
+import java.util.*;
+
+/**
+ * Writes Clojure data as EDN into a growable char[] buffer. Output matches
+ * pr-str for everything EDN can represent, except BigInteger, which gets
+ * a readable `N` suffix.
+ *
+ * Writer can be reused with reset(), keeping its buffer.
+ *
+ * If constructed with a Writer or OutputStream, buffer doesn’t grow but is
+ * flushed to it whenever it fills up. Lazy seqs are consumed one element at
+ * a time without holding on to their head, IReduceInit sources (e.g.
+ * eductions) are reduced, so neither has to fit in memory.
+ */
+public class EdnWriter {
+  public final IPersistentMap writers;
+
+  public char[]       buf;
+  public int          len;
+
+  public Writer       out;
+  public OutputStream outStream;
+  public byte[]       bytes;
+
+  /**
+   * writers is a map of Class -> fn of one argument that returns a value to
+   * write instead (e.g. a tagged-literal). Exact class matches are checked
+   * before built-in types, subclasses and interfaces after them.
+   */
+  public EdnWriter(int bufferSize, IPersistentMap writers) {
+    this.writers = writers == null || writers.count() == 0 ? null : writers;
+    this.buf = new char[Math.max(16, bufferSize)];
+    this.len = 0;
+  }
+
+  public EdnWriter(int bufferSize, IPersistentMap writers, Writer out) {
+    this(bufferSize, writers);
+    this.out = out;
+  }
+
+  public EdnWriter(int bufferSize, IPersistentMap writers, OutputStream out) {
+    this(bufferSize, writers);
+    this.outStream = out;
+    this.bytes = new byte[buf.length * 3];
+  }
+
+  public boolean isStreaming() {
+    return out != null || outStream != null;
+  }
+
+  public EdnWriter reset() {
+    len = 0;
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return new String(buf, 0, len);
+  }
+
+  /**
+   * Output encoded as UTF-8. Unpaired surrogates are replaced with `?`,
+   * same as String::getBytes
+   */
+  public byte[] toBytes() {
+    int size = 0;
+    for (int i = 0; i < len; ++i) {
+      char ch = buf[i];
+      if (ch < 0x80) {
+        size += 1;
+      } else if (ch < 0x800) {
+        size += 2;
+      } else if (Character.isHighSurrogate(ch) && i + 1 < len && Character.isLowSurrogate(buf[i + 1])) {
+        size += 4;
+        i += 1;
+      } else if (Character.isSurrogate(ch)) {
+        size += 1;
+      } else {
+        size += 3;
+      }
+    }
+
+    byte[] bytes = new byte[size];
+    encodeUtf8(buf, 0, len, bytes);
+    return bytes;
+  }
+
+  /**
+   * Encodes chars[from, to) into bytes, which should have enough space.
+   * Returns number of bytes written
+   */
+  public static int encodeUtf8(char[] chars, int from, int to, byte[] bytes) {
+    int o = 0;
+    for (int i = from; i < to; ++i) {
+      char ch = chars[i];
+      if (ch < 0x80) {
+        bytes[o++] = (byte) ch;
+      } else if (ch < 0x800) {
+        bytes[o++] = (byte) (0xC0 | (ch >> 6));
+        bytes[o++] = (byte) (0x80 | (ch & 0x3F));
+      } else if (Character.isHighSurrogate(ch) && i + 1 < to && Character.isLowSurrogate(chars[i + 1])) {
+        int cp = Character.toCodePoint(ch, chars[i + 1]);
+        bytes[o++] = (byte) (0xF0 | (cp >> 18));
+        bytes[o++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        bytes[o++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        bytes[o++] = (byte) (0x80 | (cp & 0x3F));
+        i += 1;
+      } else if (Character.isSurrogate(ch)) {
+        bytes[o++] = '?';
+      } else {
+        bytes[o++] = (byte) (0xE0 | (ch >> 12));
+        bytes[o++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+        bytes[o++] = (byte) (0x80 | (ch & 0x3F));
+      }
+    }
+    return o;
+  }
+
+  /**
+   * Writes buffered output to out/outStream. Unless `end` is set, a trailing
+   * high surrogate stays in buffer until its pair arrives
+   */
+  public void drain(boolean end) {
+    try {
+      if (out != null) {
+        out.write(buf, 0, len);
+        len = 0;
+      } else if (outStream != null) {
+        int to = len;
+        if (!end && to > 0 && Character.isHighSurrogate(buf[to - 1])) {
+          to -= 1;
+        }
+        if (bytes.length < to * 3) {
+          bytes = new byte[to * 3];
+        }
+        outStream.write(bytes, 0, encodeUtf8(buf, 0, to, bytes));
+        if (to < len) {
+          buf[0] = buf[to];
+        }
+        len -= to;
+      }
+    } catch (IOException e) {
+      Util.sneakyThrow(e);
+    }
+  }
+
+  /**
+   * Writes everything buffered so far and flushes out/outStream
+   */
+  public EdnWriter flush() {
+    drain(true);
+    try {
+      if (out != null) {
+        out.flush();
+      } else if (outStream != null) {
+        outStream.flush();
+      }
+    } catch (IOException e) {
+      Util.sneakyThrow(e);
+    }
+    return this;
+  }
+
+
+  ////////////
+  // Buffer //
+  ////////////
+
+  public void ensureCapacity(int extra) {
+    if (len + extra > buf.length) {
+      if (isStreaming()) {
+        drain(false);
+        if (len + extra <= buf.length) {
+          return;
+        }
+      }
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+  }
+
+  public void append(char ch) {
+    if (len == buf.length) {
+      ensureCapacity(1);
+    }
+    buf[len++] = ch;
+  }
+
+  public void append(String s) {
+    int l = s.length();
+    ensureCapacity(l);
+    s.getChars(0, l, buf, len);
+    len += l;
+  }
+
+  public void append(char[] chars, int from, int to) {
+    // when streaming, copied in parts so buffer doesn’t grow
+    int chunk = isStreaming() ? buf.length / 2 : to - from;
+    for (int start = from; start < to; start += chunk) {
+      int l = Math.min(chunk, to - start);
+      ensureCapacity(l);
+      System.arraycopy(chars, start, buf, len, l);
+      len += l;
+    }
+  }
+
+  public void appendLong(long l) {
+    if (l == Long.MIN_VALUE) {
+      append("-9223372036854775808");
+      return;
+    }
+
+    ensureCapacity(20);
+    if (l < 0) {
+      buf[len++] = '-';
+      l = -l;
+    }
+
+    int digits = 1;
+    for (long x = l; x >= 10; x /= 10) {
+      digits += 1;
+    }
+
+    int pos = len + digits;
+    len = pos;
+    do {
+      buf[--pos] = (char) ('0' + (l % 10));
+      l /= 10;
+    } while (l > 0);
+  }
+
+  public void appendPadded(int value, int width) {
+    ensureCapacity(width);
+    for (int pos = len + width - 1; pos >= len; --pos) {
+      buf[pos] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    len += width;
+  }
+
+
+  ///////////
+  // write //
+  ///////////
+
+  public EdnWriter write(Object o) {
+    return write(o, writers != null);
+  }
+
+  /**
+   * useWriters: whether to look up a writer for o. Value returned by a writer
+   * is written without it, so writer that returns its own type doesn't loop
+   */
+  public EdnWriter write(Object o, boolean useWriters) {
+    if (useWriters && o != null) {
+      IFn writer = (IFn) writers.valAt(o.getClass());
+      if (writer != null) {
+        o = writer.invoke(o);
+        useWriters = false;
+      }
+    }
+
+    if (o == null) {
+      append("nil");
+    } else if (o instanceof String) {
+      writeString((String) o);
+    } else if (o instanceof Keyword) {
+      append(o.toString());
+    } else if (o instanceof Long) {
+      appendLong((Long) o);
+    } else if (o instanceof Double) {
+      writeDouble((Double) o);
+    } else if (o instanceof IPersistentVector) {
+      writeVector((IPersistentVector) o);
+    } else if (o instanceof IPersistentMap && !(o instanceof IRecord)) {
+      writeMap((IPersistentMap) o);
+    } else if (o instanceof Boolean) {
+      append((Boolean) o ? "true" : "false");
+    } else if (o instanceof Symbol) {
+      append(o.toString());
+    } else if (o instanceof Character) {
+      writeCharacter((Character) o);
+    } else if (o instanceof IPersistentSet) {
+      writeSet((IPersistentSet) o);
+    } else if ((o instanceof ISeq || o instanceof IPersistentList) && !(o instanceof PersistentQueue)) {
+      // pass seq through a field so that no local here holds its head
+      pendingSeq = RT.seq(o);
+      o = null;
+      writeSeq();
+    } else if (o instanceof IReduceInit) {
+      writeReducible((IReduceInit) o);
+    } else if (o instanceof Integer || o instanceof Short || o instanceof Byte) {
+      appendLong(((Number) o).longValue());
+    } else if (o instanceof Float) {
+      writeFloat((Float) o);
+    } else if (o instanceof BigInt || o instanceof BigInteger) {
+      append(o.toString());
+      append('N');
+    } else if (o instanceof BigDecimal) {
+      append(o.toString());
+      append('M');
+    } else if (o instanceof Ratio) {
+      append(o.toString());
+    } else if (o instanceof UUID) {
+      append("#uuid \"");
+      append(o.toString());
+      append('"');
+    } else if (o instanceof Date && !(o instanceof java.sql.Timestamp)) {
+      if (!writeInst((Date) o)) {
+        append(RT.printString(o));
+      }
+    } else if (o instanceof TaggedLiteral) {
+      TaggedLiteral tl = (TaggedLiteral) o;
+      append('#');
+      append(tl.tag.toString());
+      append(' ');
+      write(tl.form);
+    } else {
+      writeOther(o, useWriters);
+    }
+    return this;
+  }
+
+  public void writeOther(Object o, boolean useWriters) {
+    if (useWriters) {
+      for (Object e: writers) {
+        Map.Entry entry = (Map.Entry) e;
+        if (((Class) entry.getKey()).isInstance(o)) {
+          write(((IFn) entry.getValue()).invoke(o), false);
+          return;
+        }
+      }
+    }
+    append(RT.printString(o));
+  }
+
+  public void writeString(String s) {
+    append('"');
+    int l = s.length();
+    // when streaming, long strings are copied in parts so buffer doesn’t grow
+    int chunk = isStreaming() ? buf.length / 2 : l;
+    for (int start = 0; start < l; start += chunk) {
+      int end = Math.min(l, start + chunk);
+      ensureCapacity(end - start);
+      for (int i = start; i < end; ++i) {
+        char ch = s.charAt(i);
+        String escaped;
+        switch (ch) {
+          case '"':  escaped = "\\\""; break;
+          case '\\': escaped = "\\\\"; break;
+          case '\n': escaped = "\\n";  break;
+          case '\t': escaped = "\\t";  break;
+          case '\r': escaped = "\\r";  break;
+          case '\f': escaped = "\\f";  break;
+          case '\b': escaped = "\\b";  break;
+          default:
+            buf[len++] = ch;
+            continue;
+        }
+        // every escape is 2 chars
+        ensureCapacity(end - i + 1);
+        buf[len++] = escaped.charAt(0);
+        buf[len++] = escaped.charAt(1);
+      }
+    }
+    append('"');
+  }
+
+  public void writeCharacter(char ch) {
+    switch (ch) {
+      case '\n': append("\\newline");   break;
+      case ' ':  append("\\space");     break;
+      case '\t': append("\\tab");       break;
+      case '\b': append("\\backspace"); break;
+      case '\f': append("\\formfeed");  break;
+      case '\r': append("\\return");    break;
+      default:
+        ensureCapacity(2);
+        buf[len++] = '\\';
+        buf[len++] = ch;
+    }
+  }
+
+  public void writeDouble(double d) {
+    if (Double.isNaN(d)) {
+      append("##NaN");
+    } else if (d == Double.POSITIVE_INFINITY) {
+      append("##Inf");
+    } else if (d == Double.NEGATIVE_INFINITY) {
+      append("##-Inf");
+    } else {
+      append(Double.toString(d));
+    }
+  }
+
+  public void writeFloat(float f) {
+    if (Float.isNaN(f) || Float.isInfinite(f)) {
+      writeDouble(f);
+    } else {
+      append(Float.toString(f));
+    }
+  }
+
+  /**
+   * Same format as clojure.instant: #inst "1970-01-01T00:00:00.000-00:00".
+   * Returns false for dates it can’t format the same way (before Gregorian
+   * calendar or after year 9999)
+   */
+  public boolean writeInst(Date date) {
+    long ms = date.getTime();
+    // 1582-10-15 .. 9999-12-31
+    if (ms < -12219292800000L || ms >= 253402300800000L) {
+      return false;
+    }
+
+    long days     = Math.floorDiv(ms, 86400000L);
+    int  msOfDay  = (int) Math.floorMod(ms, 86400000L);
+
+    // civil_from_days, http://howardhinnant.github.io/date_algorithms.html
+    long z     = days + 719468;
+    long era   = Math.floorDiv(z, 146097);
+    int  doe   = (int) (z - era * 146097);
+    int  yoe   = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+    int  doy   = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    int  mp    = (5 * doy + 2) / 153;
+    int  day   = doy - (153 * mp + 2) / 5 + 1;
+    int  month = mp < 10 ? mp + 3 : mp - 9;
+    int  year  = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+
+    append("#inst \"");
+    appendPadded(year, 4);
+    append('-');
+    appendPadded(month, 2);
+    append('-');
+    appendPadded(day, 2);
+    append('T');
+    appendPadded(msOfDay / 3600000, 2);
+    append(':');
+    appendPadded(msOfDay / 60000 % 60, 2);
+    append(':');
+    appendPadded(msOfDay / 1000 % 60, 2);
+    append('.');
+    appendPadded(msOfDay % 1000, 3);
+    append("-00:00\"");
+    return true;
+  }
+
+  public void writeVector(IPersistentVector v) {
+    if (v instanceof LazyVector && writers == null) {
+      // source text, as is
+      LazyVector lv = (LazyVector) v;
+      append(lv.source.buf, lv.from, lv.ends[lv.ends.length - 1]);
+      return;
+    }
+
+    append('[');
+    int count = v.count();
+    if (v instanceof PersistentVector) {
+      PersistentVector pv = (PersistentVector) v;
+      for (int i = 0; i < count; i += 32) {
+        Object[] arr = pv.arrayFor(i);
+        for (int j = 0; j < arr.length && i + j < count; ++j) {
+          if (i + j > 0) {
+            append(' ');
+          }
+          write(arr[j]);
+        }
+      }
+    } else if (v instanceof LongVector) {
+      long[] arr = ((LongVector) v).array;
+      for (int i = 0; i < count; ++i) {
+        if (i > 0) {
+          append(' ');
+        }
+        appendLong(arr[i]);
+      }
+    } else if (v instanceof DoubleVector) {
+      double[] arr = ((DoubleVector) v).array;
+      for (int i = 0; i < count; ++i) {
+        if (i > 0) {
+          append(' ');
+        }
+        writeDouble(arr[i]);
+      }
+    } else {
+      for (int i = 0; i < count; ++i) {
+        if (i > 0) {
+          append(' ');
+        }
+        write(v.nth(i));
+      }
+    }
+    append(']');
+  }
+
+  public final IFn kvWriter = new AFn() {
+    @Override
+    public Object invoke(Object first, Object key, Object val) {
+      if (first == null) {
+        append(',');
+        append(' ');
+      }
+      write(key);
+      append(' ');
+      write(val);
+      return null;
+    }
+  };
+
+  public void writeMap(IPersistentMap m) {
+    if (m instanceof LazyMap && writers == null) {
+      LazyMap lm = (LazyMap) m;
+      append(lm.source.buf, lm.from, lm.ends[lm.ends.length - 1]);
+      return;
+    }
+
+    append('{');
+    if (m instanceof IKVReduce) {
+      ((IKVReduce) m).kvreduce(kvWriter, Boolean.TRUE);
+    } else {
+      boolean first = true;
+      for (Object e: m) {
+        kvWriter.invoke(first ? Boolean.TRUE : null, ((Map.Entry) e).getKey(), ((Map.Entry) e).getValue());
+        first = false;
+      }
+    }
+    append('}');
+  }
+
+  public void writeSet(IPersistentSet s) {
+    append('#');
+    append('{');
+    boolean first = true;
+    for (Object o: (Iterable) s) {
+      if (!first) {
+        append(' ');
+      }
+      write(o);
+      first = false;
+    }
+    append('}');
+  }
+
+  public ISeq pendingSeq;
+
+  public void writeSeq() {
+    ISeq s = pendingSeq;
+    pendingSeq = null;
+    append('(');
+    for (boolean first = true; s != null; s = s.next(), first = false) {
+      if (!first) {
+        append(' ');
+      }
+      write(s.first());
+    }
+    append(')');
+  }
+
+  public final IFn elementWriter = new AFn() {
+    @Override
+    public Object invoke(Object first, Object x) {
+      if (first == null) {
+        append(' ');
+      }
+      write(x);
+      return null;
+    }
+  };
+
+  public void writeReducible(IReduceInit r) {
+    append('(');
+    r.reduce(elementWriter, Boolean.TRUE);
+    append(')');
+  }
+}
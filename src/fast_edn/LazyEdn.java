@@ -0,0 +1,216 @@
+package fast_edn;
+
+import clojure.lang.*;
+
+/**
+ * Input that lazy values (LazyVector, LazyMap) are read from.
+ *
+ * Vectors and maps are not parsed: EdnIndex, built once for the whole form,
+ * tells where their elements end, and elements are parsed from `buf` only
+ * when accessed. Nested vectors and maps become lazy too, without scanning
+ * their chars again. Map keys are parsed right away, to look them up.
+ * Everything else (and collections with metadata, tags, #:ns prefixes) is
+ * read by a regular parser from `pool`.
+ *
+ * Brackets and parser's maxDepth are checked for the whole form upfront,
+ * from the index.
+ * With primitiveVectors, vectors that start with a number are read by
+ * parser too, so they become LongVector/DoubleVector.
+ *
+ * Unread parts are not validated. Lazy values keep the whole buf alive.
+ */
+public class LazyEdn {
+  public static final Object UNREALIZED = new Object();
+
+  /**
+   * LazyVector and LazyMap: values backed by source text
+   */
+  public interface View {
+    /**
+     * Source text of the whole value, as is
+     */
+    String raw();
+
+    /**
+     * Source text of element at index (vectors) or key (maps), without
+     * parsing it. nil if there's no such element
+     */
+    String rawAt(Object key);
+  }
+
+  public final char[]        buf;
+  public final EdnParserPool pool;
+  public final EdnIndex      index;
+  public final int           maxDepth;
+  public final boolean       primitiveVectors;
+
+  public LazyEdn(char[] buf, EdnParserPool pool) {
+    this.buf = buf;
+    this.pool = pool;
+    EdnParser parser = pool.acquire();
+    this.maxDepth = parser.maxDepth;
+    this.primitiveVectors = parser.primitiveVectors;
+    pool.release(parser);
+    int start = skipToForm(0, buf.length);
+    if (start < buf.length && (buf[start] == '[' || buf[start] == '{')) {
+      this.index = EdnIndex.build(buf, start, buf.length);
+    } else {
+      this.index = null;
+    }
+  }
+
+  /**
+   * Reads first form in buf
+   */
+  public Object read() {
+    if (index != null && index.mismatched) {
+      // parser will report the error
+      return parse(0, buf.length);
+    }
+    if (index != null && index.maxDepth > maxDepth) {
+      throw new RuntimeException("Nesting deeper than max depth " + maxDepth);
+    }
+    return read(0, buf.length);
+  }
+
+  /**
+   * Position of the first char that is not whitespace or comment
+   */
+  public int skipToForm(int from, int to) {
+    for (int pos = from; pos < to; ++pos) {
+      char ch = buf[pos];
+      if (ch == ';') {
+        for (; pos < to && buf[pos] != '\n' && buf[pos] != '\r'; ++pos);
+      } else if (!EdnParser.isWhitespace(ch)) {
+        return pos;
+      }
+    }
+    return to;
+  }
+
+  /**
+   * Reads first form in buf[from, to), lazily if it's a vector or a map
+   */
+  public Object read(int from, int to) {
+    int start = skipToForm(from, to);
+    if (start < to) {
+      char ch = buf[start];
+      if (ch == '[') {
+        return readVector(start, to);
+      } else if (ch == '{') {
+        return readMap(start, to);
+      }
+    }
+    return parse(from, to);
+  }
+
+  public Object parse(int from, int to) {
+    EdnParser parser = pool.acquire();
+    try {
+      parser.setInput(buf, from, to);
+      parser.readGlobalPos = 0;
+      return parser.readNext();
+    } finally {
+      pool.release(parser);
+    }
+  }
+
+  /**
+   * Ends of elements of a collection that opens at buf[from], followed by
+   * position after its closing bracket. null if it's not closed
+   */
+  public int[] children(int from, int to) {
+    return index == null ? null : index.children(from);
+  }
+
+  /**
+   * Whether form at buf[from, to) looks like a number: digit, sign followed
+   * by a digit or ##
+   */
+  public boolean isNumber(int from, int to) {
+    int pos = skipToForm(from, to);
+    if (pos >= to) {
+      return false;
+    }
+    char ch = buf[pos];
+    if (ch >= '0' && ch <= '9') {
+      return true;
+    }
+    if (pos + 1 < to) {
+      char next = buf[pos + 1];
+      return ((ch == '-' || ch == '+') && next >= '0' && next <= '9')
+        || (ch == '#' && next == '#');
+    }
+    return false;
+  }
+
+  public Object readVector(int from, int to) {
+    int[] ends = children(from, to);
+    if (ends == null) {
+      // parser will report the error
+      return parse(from, to);
+    }
+    if (primitiveVectors && ends.length > 1 && isNumber(from + 1, ends[0])) {
+      return parse(from, to);
+    }
+    return new LazyVector(this, from, ends, null);
+  }
+
+  public Object readMap(int from, int to) {
+    int[] ends = children(from, to);
+    if (ends == null || ends.length % 2 == 0) {
+      return parse(from, to);
+    }
+
+    int       count  = ends.length / 2;
+    Object[]  keys   = new Object[count];
+    EdnParser parser = pool.acquire();
+    try {
+      for (int i = 0; i < count; ++i) {
+        parser.setInput(buf, childStart(from, ends, 2 * i), ends[2 * i]);
+        parser.readGlobalPos = 0;
+        keys[i] = parser.readNext();
+      }
+    } finally {
+      pool.release(parser);
+    }
+
+    IPersistentMap index = null;
+    if (count <= LazyMap.LINEAR_LOOKUP) {
+      for (int i = 0; i < count; ++i) {
+        for (int j = i + 1; j < count; ++j) {
+          if (Util.equiv(keys[i], keys[j])) {
+            return parse(from, to);
+          }
+        }
+      }
+    } else {
+      ITransientMap acc = PersistentHashMap.EMPTY.asTransient();
+      for (int i = 0; i < count; ++i) {
+        acc = acc.assoc(keys[i], i);
+      }
+      if (acc.count() != count) {
+        return parse(from, to);
+      }
+      index = acc.persistent();
+    }
+
+    return new LazyMap(this, from, ends, keys, index, null);
+  }
+
+  public static int childStart(int from, int[] ends, int i) {
+    return i == 0 ? from + 1 : ends[i - 1];
+  }
+
+  public String raw(int from, int to) {
+    return new String(buf, from, to - from);
+  }
+
+  /**
+   * Source text of i-th element, without whitespace and comments before it
+   */
+  public String rawChild(int from, int[] ends, int i) {
+    int end = ends[i];
+    return raw(skipToForm(childStart(from, ends, i), end), end);
+  }
+}
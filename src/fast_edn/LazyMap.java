@@ -0,0 +1,188 @@
+package fast_edn;
+
+import clojure.lang.*;
+import java.util.*;
+
+/**
+ * Map that parses its values on first access, see LazyEdn.
+ *
+ * Keys are parsed when map is created. get parses (and remembers) a single
+ * value. Everything that makes a new map (assoc, dissoc, transients) parses
+ * all of them and switches to a regular PersistentArrayMap/PersistentHashMap.
+ */
+public class LazyMap extends APersistentMap implements IObj, IEditableCollection, IKVReduce, LazyEdn.View {
+  /**
+   * Maps with up to this many keys are searched linearly, larger ones have
+   * `index` of key -> position
+   */
+  public static final int LINEAR_LOOKUP = 8;
+
+  public final LazyEdn        source;
+  public final int            from;
+  public final int[]          ends;
+  public final Object[]       keys;
+  public final IPersistentMap index;
+  public final Object[]       values;
+  public final IPersistentMap meta;
+
+  /**
+   * from is the position of opening bracket, ends are as returned by
+   * LazyEdn::children
+   */
+  public LazyMap(LazyEdn source, int from, int[] ends, Object[] keys, IPersistentMap index, IPersistentMap meta) {
+    this.source = source;
+    this.from = from;
+    this.ends = ends;
+    this.keys = keys;
+    this.index = index;
+    this.values = new Object[keys.length];
+    Arrays.fill(values, LazyEdn.UNREALIZED);
+    this.meta = meta;
+  }
+
+  public LazyMap(LazyMap m, IPersistentMap meta) {
+    this.source = m.source;
+    this.from = m.from;
+    this.ends = m.ends;
+    this.keys = m.keys;
+    this.index = m.index;
+    this.values = m.values;
+    this.meta = meta;
+  }
+
+  public int indexOf(Object key) {
+    if (index != null) {
+      Object i = index.valAt(key);
+      return i == null ? -1 : (Integer) i;
+    }
+    if (key instanceof Keyword) {
+      for (int i = 0; i < keys.length; ++i) {
+        if (keys[i] == key) {
+          return i;
+        }
+      }
+      return -1;
+    }
+    for (int i = 0; i < keys.length; ++i) {
+      if (Util.equiv(key, keys[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public Object value(int i) {
+    Object v = values[i];
+    if (v == LazyEdn.UNREALIZED) {
+      int valueIdx = 2 * i + 1;
+      v = source.read(LazyEdn.childStart(from, ends, valueIdx), ends[valueIdx]);
+      values[i] = v;
+    }
+    return v;
+  }
+
+  public int count() {
+    return keys.length;
+  }
+
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  public IMapEntry entryAt(Object key) {
+    int i = indexOf(key);
+    return i >= 0 ? MapEntry.create(keys[i], value(i)) : null;
+  }
+
+  public Object valAt(Object key) {
+    return valAt(key, null);
+  }
+
+  public Object valAt(Object key, Object notFound) {
+    int i = indexOf(key);
+    return i >= 0 ? value(i) : notFound;
+  }
+
+  public Iterator iterator() {
+    return new Iterator() {
+      int i = 0;
+
+      public boolean hasNext() {
+        return i < keys.length;
+      }
+
+      public Object next() {
+        if (i >= keys.length) {
+          throw new NoSuchElementException();
+        }
+        Object e = MapEntry.create(keys[i], value(i));
+        i += 1;
+        return e;
+      }
+    };
+  }
+
+  public ISeq seq() {
+    return keys.length == 0 ? null : RT.chunkIteratorSeq(iterator());
+  }
+
+  public Object kvreduce(IFn f, Object init) {
+    for (int i = 0; i < keys.length; ++i) {
+      init = f.invoke(init, keys[i], value(i));
+      if (RT.isReduced(init)) {
+        return ((IDeref) init).deref();
+      }
+    }
+    return init;
+  }
+
+  public IPersistentMap toPersistentMap() {
+    Object[] kvs = new Object[keys.length * 2];
+    for (int i = 0; i < keys.length; ++i) {
+      kvs[2 * i] = keys[i];
+      kvs[2 * i + 1] = value(i);
+    }
+    IPersistentMap m = keys.length <= LINEAR_LOOKUP ? new PersistentArrayMap(kvs) : PersistentHashMap.create(kvs);
+    return meta == null ? m : (IPersistentMap) ((IObj) m).withMeta(meta);
+  }
+
+  public IPersistentMap assoc(Object key, Object val) {
+    return toPersistentMap().assoc(key, val);
+  }
+
+  public IPersistentMap assocEx(Object key, Object val) {
+    return toPersistentMap().assocEx(key, val);
+  }
+
+  public IPersistentMap without(Object key) {
+    return toPersistentMap().without(key);
+  }
+
+  public IPersistentCollection empty() {
+    return (IPersistentCollection) PersistentArrayMap.EMPTY.withMeta(meta);
+  }
+
+  public ITransientCollection asTransient() {
+    return ((IEditableCollection) toPersistentMap()).asTransient();
+  }
+
+  public IPersistentMap meta() {
+    return meta;
+  }
+
+  public LazyMap withMeta(IPersistentMap meta) {
+    if (this.meta == meta) {
+      return this;
+    }
+    return new LazyMap(this, meta);
+  }
+
+  public String raw() {
+    return source.raw(from, ends[ends.length - 1]);
+  }
+
+  public String rawAt(Object key) {
+    int i = indexOf(key);
+    return i >= 0 ? source.rawChild(from, ends, 2 * i + 1) : null;
+  }
+}
@@ -0,0 +1,108 @@
+package fast_edn;
+
+import clojure.lang.*;
+
+/**
+ * Vector that parses its elements on first access, see LazyEdn.
+ *
+ * nth parses (and remembers) a single element. Everything that makes a new
+ * vector (conj, assoc, pop, transients) parses all of them and switches to
+ * a regular PersistentVector.
+ */
+public class LazyVector extends APersistentVector implements IObj, IEditableCollection, LazyEdn.View {
+  public final LazyEdn        source;
+  public final int            from;
+  public final int[]          ends;
+  public final Object[]       values;
+  public final IPersistentMap meta;
+
+  /**
+   * from is the position of opening bracket, ends are as returned by
+   * LazyEdn::children
+   */
+  public LazyVector(LazyEdn source, int from, int[] ends, IPersistentMap meta) {
+    this.source = source;
+    this.from = from;
+    this.ends = ends;
+    this.values = new Object[ends.length - 1];
+    java.util.Arrays.fill(values, LazyEdn.UNREALIZED);
+    this.meta = meta;
+  }
+
+  public LazyVector(LazyVector v, IPersistentMap meta) {
+    this.source = v.source;
+    this.from = v.from;
+    this.ends = v.ends;
+    this.values = v.values;
+    this.meta = meta;
+  }
+
+  public int count() {
+    return values.length;
+  }
+
+  public Object nth(int i) {
+    if (i < 0 || i >= values.length) {
+      throw new IndexOutOfBoundsException();
+    }
+    Object v = values[i];
+    if (v == LazyEdn.UNREALIZED) {
+      v = source.read(LazyEdn.childStart(from, ends, i), ends[i]);
+      values[i] = v;
+    }
+    return v;
+  }
+
+  public PersistentVector toPersistentVector() {
+    Object[] items = new Object[values.length];
+    for (int i = 0; i < items.length; ++i) {
+      items[i] = nth(i);
+    }
+    return ((PersistentVector) LazilyPersistentVector.createOwning(items)).withMeta(meta);
+  }
+
+  public IPersistentVector cons(Object o) {
+    return toPersistentVector().cons(o);
+  }
+
+  public IPersistentVector assocN(int i, Object o) {
+    return toPersistentVector().assocN(i, o);
+  }
+
+  public IPersistentStack pop() {
+    return toPersistentVector().pop();
+  }
+
+  public IPersistentCollection empty() {
+    return PersistentVector.EMPTY.withMeta(meta);
+  }
+
+  public ITransientCollection asTransient() {
+    return toPersistentVector().asTransient();
+  }
+
+  public IPersistentMap meta() {
+    return meta;
+  }
+
+  public LazyVector withMeta(IPersistentMap meta) {
+    if (this.meta == meta) {
+      return this;
+    }
+    return new LazyVector(this, meta);
+  }
+
+  public String raw() {
+    return source.raw(from, ends[ends.length - 1]);
+  }
+
+  public String rawAt(Object key) {
+    if (Util.isInteger(key)) {
+      int i = ((Number) key).intValue();
+      if (i >= 0 && i < values.length) {
+        return source.rawChild(from, ends, i);
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,39 @@
+package fast_edn;
+
+import clojure.lang.*;
+
+/**
+ * Immutable vector backed by long[], see PrimitiveVector
+ */
+public class LongVector extends PrimitiveVector {
+  public final long[] array;
+
+  public LongVector(long[] array, int cnt, IPersistentMap meta) {
+    super(cnt, meta);
+    this.array = array;
+  }
+
+  public Object get(int i) {
+    return array[i];
+  }
+
+  public LongVector withCount(int cnt) {
+    return new LongVector(array, cnt, meta);
+  }
+
+  public LongVector assocPrimitive(int i, Object o) {
+    if (o instanceof Long) {
+      long[] copy = java.util.Arrays.copyOf(array, cnt);
+      copy[i] = (Long) o;
+      return new LongVector(copy, cnt, meta);
+    }
+    return null;
+  }
+
+  public LongVector withMeta(IPersistentMap meta) {
+    if (this.meta == meta) {
+      return this;
+    }
+    return new LongVector(array, cnt, meta);
+  }
+}
@@ -0,0 +1,72 @@
+package fast_edn;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/**
+ * Utf8Reader over a memory-mapped file. File is mapped in windows of
+ * windowSize bytes (MappedByteBuffer can't address more than 2 GB), next
+ * window is mapped when previous one is exhausted.
+ *
+ * Mapping saves read() syscalls, not copying: mapped bytes are still copied
+ * to a small heap array and decoded into parser's buffer, see Utf8Reader.
+ */
+public class MappedFileReader extends Utf8Reader {
+  public static final long WINDOW_SIZE = 1L << 30;
+
+  public final FileChannel channel;
+  public final long        size;
+  public final long        windowSize;
+  public long              position;
+
+  /**
+   * Opens and maps file, closes channel if mapping fails
+   */
+  public static MappedFileReader open(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      return new MappedFileReader(channel, WINDOW_SIZE);
+    } catch (Throwable t) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        t.addSuppressed(e);
+      }
+      throw t;
+    }
+  }
+
+  /**
+   * Takes ownership of channel once constructed: close() closes it
+   */
+  public MappedFileReader(FileChannel channel, long windowSize) throws IOException {
+    super(map(channel, 0, windowSize));
+    this.channel = channel;
+    this.size = channel.size();
+    this.windowSize = windowSize;
+    this.position = buffer.remaining();
+  }
+
+  public static MappedByteBuffer map(FileChannel channel, long position, long windowSize) throws IOException {
+    long len = Math.min(windowSize, channel.size() - position);
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+  }
+
+  @Override
+  public boolean nextBuffer() throws IOException {
+    if (position >= size) {
+      return false;
+    }
+    buffer = map(channel, position, windowSize);
+    position += buffer.remaining();
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    buffer = null;
+    channel.close();
+  }
+}
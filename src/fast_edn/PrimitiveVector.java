@@ -0,0 +1,118 @@
+package fast_edn;
+
+import clojure.lang.*;
+
+/**
+ * Shared part of LongVector and DoubleVector, see EdnParser::setPrimitiveVectors.
+ *
+ * Reading is done directly from subclass array, elements are boxed only when
+ * accessed through nth/reduce. pop and assocN of the same primitive type stay
+ * primitive, everything else (conj, assocN of other types, transients)
+ * switches to a regular PersistentVector.
+ */
+public abstract class PrimitiveVector extends APersistentVector implements IObj, IReduce, IEditableCollection {
+  public final int            cnt;
+  public final IPersistentMap meta;
+
+  public PrimitiveVector(int cnt, IPersistentMap meta) {
+    this.cnt = cnt;
+    this.meta = meta;
+  }
+
+  /**
+   * Boxed element at i, i is already checked to be in [0, cnt)
+   */
+  public abstract Object get(int i);
+
+  /**
+   * Same array, first cnt elements
+   */
+  public abstract PrimitiveVector withCount(int cnt);
+
+  /**
+   * Copy with o at i, or null if o is not of vector's primitive type
+   */
+  public abstract PrimitiveVector assocPrimitive(int i, Object o);
+
+  public abstract PrimitiveVector withMeta(IPersistentMap meta);
+
+  public int count() {
+    return cnt;
+  }
+
+  public Object nth(int i) {
+    if (i >= 0 && i < cnt) {
+      return get(i);
+    }
+    throw new IndexOutOfBoundsException();
+  }
+
+  public PersistentVector toPersistentVector() {
+    Object[] items = new Object[cnt];
+    for (int i = 0; i < cnt; ++i) {
+      items[i] = get(i);
+    }
+    return ((PersistentVector) LazilyPersistentVector.createOwning(items)).withMeta(meta);
+  }
+
+  public IPersistentVector cons(Object o) {
+    return toPersistentVector().cons(o);
+  }
+
+  public IPersistentVector assocN(int i, Object o) {
+    if (i >= 0 && i < cnt) {
+      PrimitiveVector v = assocPrimitive(i, o);
+      if (v != null) {
+        return v;
+      }
+    }
+    return toPersistentVector().assocN(i, o);
+  }
+
+  public IPersistentStack pop() {
+    if (cnt == 0) {
+      throw new IllegalStateException("Can't pop empty vector");
+    }
+    if (cnt == 1) {
+      return PersistentVector.EMPTY.withMeta(meta);
+    }
+    return withCount(cnt - 1);
+  }
+
+  public IPersistentCollection empty() {
+    return PersistentVector.EMPTY.withMeta(meta);
+  }
+
+  public ITransientCollection asTransient() {
+    return toPersistentVector().asTransient();
+  }
+
+  public IPersistentMap meta() {
+    return meta;
+  }
+
+  public Object reduce(IFn f) {
+    if (cnt == 0) {
+      return f.invoke();
+    }
+    Object acc = get(0);
+    for (int i = 1; i < cnt; ++i) {
+      acc = f.invoke(acc, get(i));
+      if (RT.isReduced(acc)) {
+        return ((IDeref) acc).deref();
+      }
+    }
+    return acc;
+  }
+
+  public Object reduce(IFn f, Object start) {
+    Object acc = start;
+    for (int i = 0; i < cnt; ++i) {
+      acc = f.invoke(acc, get(i));
+      if (RT.isReduced(acc)) {
+        return ((IDeref) acc).deref();
+      }
+    }
+    return acc;
+  }
+}
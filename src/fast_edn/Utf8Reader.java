@@ -0,0 +1,288 @@
+package fast_edn;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * UTF-8 decoding Reader over byte[], ByteBuffer or InputStream.
+ *
+ * Replaces InputStreamReader + CharsetDecoder: ASCII bytes (everything
+ * structural in EDN) are widened in a tight loop, multi-byte sequences are only
+ * decoded where they occur, i.e. inside strings, symbols, keywords and characters.
+ * Malformed input is replaced with U+FFFD, same as InputStreamReader does.
+ */
+public class Utf8Reader extends Reader {
+  public static final int BUFFER_SIZE = 8192;
+
+  public byte[]      bytes;
+  public int         pos;
+  public int         limit;
+  public boolean     ownsBytes;
+
+  public InputStream in;
+  public ByteBuffer  buffer;
+  public int         pendingLow = -1;
+
+  public Utf8Reader(byte[] bytes) {
+    this(bytes, 0, bytes.length);
+  }
+
+  public Utf8Reader(byte[] bytes, int offset, int length) {
+    this.bytes = bytes;
+    this.pos = offset;
+    this.limit = offset + length;
+    this.ownsBytes = false;
+  }
+
+  public Utf8Reader(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      this.bytes = buffer.array();
+      this.pos = buffer.arrayOffset() + buffer.position();
+      this.limit = buffer.arrayOffset() + buffer.limit();
+      this.ownsBytes = false;
+    } else {
+      this.buffer = buffer.duplicate();
+      this.bytes = new byte[Math.min(BUFFER_SIZE, Math.max(4, buffer.remaining()))];
+      this.ownsBytes = true;
+    }
+  }
+
+  public Utf8Reader(InputStream in) {
+    this(in, BUFFER_SIZE);
+  }
+
+  public Utf8Reader(InputStream in, int bufferSize) {
+    this.in = in;
+    this.bytes = new byte[Math.max(4, bufferSize)];
+    this.ownsBytes = true;
+  }
+
+  /**
+   * Makes more bytes available in bytes[pos, limit). Keeps unconsumed tail
+   * (an incomplete multi-byte sequence). Returns false if no more input.
+   */
+  public boolean fill() throws IOException {
+    if (!ownsBytes) {
+      return false;
+    }
+
+    int rest = limit - pos;
+    if (rest > 0) {
+      System.arraycopy(bytes, pos, bytes, 0, rest);
+    }
+    pos = 0;
+    limit = rest;
+
+    if (in != null) {
+      int read = in.read(bytes, rest, bytes.length - rest);
+      if (read <= 0) {
+        return false;
+      }
+      limit = rest + read;
+      return true;
+    }
+
+    if (buffer != null) {
+      if (!buffer.hasRemaining() && !nextBuffer()) {
+        return false;
+      }
+      int read = Math.min(bytes.length - rest, buffer.remaining());
+      buffer.get(bytes, rest, read);
+      limit = rest + read;
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * For push-style input (see EdnFeeder): adds chunk after bytes that were
+   * not decoded yet, growing bytes if needed. Consumes chunk. Reader
+   * must own its bytes
+   */
+  public void append(ByteBuffer chunk) {
+    int rest = limit - pos;
+    int len  = chunk.remaining();
+    if (rest + len > bytes.length) {
+      byte[] grown = new byte[Math.max(bytes.length * 2, rest + len)];
+      System.arraycopy(bytes, pos, grown, 0, rest);
+      bytes = grown;
+    } else if (pos > 0) {
+      System.arraycopy(bytes, pos, bytes, 0, rest);
+    }
+    pos = 0;
+    limit = rest;
+    chunk.get(bytes, limit, len);
+    limit += len;
+  }
+
+  /**
+   * Hook for subclasses that supply input in several ByteBuffers.
+   * Should replace `buffer` and return false when there are no more.
+   */
+  public boolean nextBuffer() throws IOException {
+    return false;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+
+    int end = off + len;
+    int o   = off;
+
+    if (pendingLow != -1) {
+      cbuf[o++] = (char) pendingLow;
+      pendingLow = -1;
+    }
+
+    o = decode(cbuf, o, end, false);
+    while (o == off) {
+      if (!fill()) {
+        if (pos >= limit) {
+          return -1;
+        }
+        // truncated sequence at the end of input
+        o = decode(cbuf, o, end, true);
+        break;
+      }
+      o = decode(cbuf, o, end, false);
+    }
+    return o - off;
+  }
+
+  public static boolean isContinuation(int b) {
+    return (b & 0xC0) == 0x80;
+  }
+
+  /**
+   * Decodes bytes[pos, limit) into cbuf[o, end). Stops before a sequence that
+   * is valid so far but not complete, unless eof is set. Returns new o.
+   */
+  public int decode(char[] cbuf, int o, int end, boolean eof) {
+    byte[] b   = bytes;
+    int    p   = pos;
+    int    lim = limit;
+
+    while (o < end && p < lim) {
+      int b0 = b[p];
+
+      // ASCII
+      if (b0 >= 0) {
+        cbuf[o++] = (char) b0;
+        p++;
+        continue;
+      }
+
+      b0 &= 0xFF;
+
+      // 2 bytes
+      if (b0 >= 0xC2 && b0 <= 0xDF) {
+        if (p + 1 >= lim) {
+          if (!eof) break;
+          cbuf[o++] = '\uFFFD';
+          p = lim;
+          continue;
+        }
+        int b1 = b[p + 1];
+        if (!isContinuation(b1)) {
+          cbuf[o++] = '\uFFFD';
+          p += 1;
+          continue;
+        }
+        cbuf[o++] = (char) (((b0 & 0x1F) << 6) | (b1 & 0x3F));
+        p += 2;
+        continue;
+      }
+
+      // 3 bytes
+      if (b0 >= 0xE0 && b0 <= 0xEF) {
+        if (p + 1 < lim) {
+          int b1 = b[p + 1] & 0xFF;
+          // overlong encoding
+          if (!isContinuation(b1) || (b0 == 0xE0 && b1 < 0xA0)) {
+            cbuf[o++] = '\uFFFD';
+            p += 1;
+            continue;
+          }
+          if (p + 2 < lim) {
+            int b2 = b[p + 2];
+            if (!isContinuation(b2)) {
+              cbuf[o++] = '\uFFFD';
+              p += 2;
+              continue;
+            }
+            char ch = (char) (((b0 & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F));
+            // encoded surrogates are malformed
+            cbuf[o++] = Character.isSurrogate(ch) ? '\uFFFD' : ch;
+            p += 3;
+            continue;
+          }
+        }
+        if (!eof) break;
+        cbuf[o++] = '\uFFFD';
+        p = lim;
+        continue;
+      }
+
+      // 4 bytes, surrogate pair
+      if (b0 >= 0xF0 && b0 <= 0xF4) {
+        int lo = b0 == 0xF0 ? 0x90 : 0x80;
+        int hi = b0 == 0xF4 ? 0x8F : 0xBF;
+        if (p + 1 < lim) {
+          int b1 = b[p + 1] & 0xFF;
+          if (b1 < lo || b1 > hi) {
+            cbuf[o++] = '\uFFFD';
+            p += 1;
+            continue;
+          }
+          if (p + 2 < lim) {
+            int b2 = b[p + 2];
+            if (!isContinuation(b2)) {
+              cbuf[o++] = '\uFFFD';
+              p += 2;
+              continue;
+            }
+            if (p + 3 < lim) {
+              int b3 = b[p + 3];
+              if (!isContinuation(b3)) {
+                cbuf[o++] = '\uFFFD';
+                p += 3;
+                continue;
+              }
+              int cp = ((b0 & 0x07) << 18) | ((b1 & 0x3F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F);
+              cbuf[o++] = Character.highSurrogate(cp);
+              if (o < end) {
+                cbuf[o++] = Character.lowSurrogate(cp);
+              } else {
+                pendingLow = Character.lowSurrogate(cp);
+              }
+              p += 4;
+              continue;
+            }
+          }
+        }
+        if (!eof) break;
+        cbuf[o++] = '\uFFFD';
+        p = lim;
+        continue;
+      }
+
+      // stray continuation byte or invalid lead byte
+      cbuf[o++] = '\uFFFD';
+      p += 1;
+    }
+
+    pos = p;
+    return o;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (in != null) {
+      in.close();
+    }
+  }
+}
@@ -3,10 +3,14 @@
   (:require
    [clojure.java.io :as io])
   (:import
-   [java.io ByteArrayInputStream CharArrayReader File FileReader InputStream InputStreamReader Reader StringReader]
+   [java.io CharArrayReader File FileInputStream FileOutputStream InputStream OutputStream Reader StringReader Writer]
+   [java.nio ByteBuffer]
    [java.time ZonedDateTime ZoneOffset]
-   [java.util Date]
-   [fast_edn EdnParser]))
+   [java.util ArrayList Date]
+   [java.util.concurrent ForkJoinPool ForkJoinTask]
+   [java.util.concurrent.atomic AtomicReferenceArray]
+   [clojure.lang MapEntry]
+   [fast_edn EdnEventHandler EdnFeeder EdnParser EdnParser$BoxCache EdnParserPool EdnScanner EdnWriter LazyEdn LazyEdn$View MappedFileReader Utf8Reader]))
 
 (defn- merge [m1 m2]
   (if (empty? m2)
@@ -44,51 +48,134 @@
   (assoc clojure.core/default-data-readers
     'inst read-instant-date))
 
-(defn reader ^Reader [source]
+(defn reader
+  (^Reader [source]
+   (reader nil source))
+  (^Reader [opts source]
+   (condp instance? source
+     Reader      source
+     String      (StringReader. ^String source)
+     InputStream (Utf8Reader. ^InputStream source (max Utf8Reader/BUFFER_SIZE (:max-buffer opts 0)))
+     File        (if (:mmap opts)
+                   (MappedFileReader/open ^File source)
+                   (Utf8Reader. (FileInputStream. ^File source) (max Utf8Reader/BUFFER_SIZE (:max-buffer opts 0))))
+     byte/1      (Utf8Reader. ^bytes source)
+     ByteBuffer  (Utf8Reader. ^ByteBuffer source)
+     char/1      (CharArrayReader. source)
+     #_else      (throw (ex-info (str "Expected Reader, InputStream, File, byte[], ByteBuffer, char[] or String, got: " (class source)) {:source source})))))
+
+(defn- set-source ^EdnParser [^EdnParser parser opts source]
   (condp instance? source
-    Reader      source
-    String      (StringReader. ^String source)
-    InputStream (InputStreamReader. source)
-    File        (FileReader. ^File source)
-    byte/1      (InputStreamReader. (ByteArrayInputStream. source))
-    char/1      (CharArrayReader. source)
-    #_else      (throw (ex-info (str "Expected Reader, InputStream, File, byte[], char[] or String, got: " (class source)) {:source source}))))
+    String (.setInput parser ^String source)
+    char/1 (.setInput parser ^chars source 0 (alength ^chars source))
+    #_else (.setReader parser (reader opts source))))
+
+(defn- close-source [^EdnParser parser]
+  (.close ^Reader (.-reader parser)))
 
 (defn parser
   "Creates a parser that can be reused. Useful for performance optimisations
    (together with `set-reader`) or for reading multiple objects from same Reader.
    
-   Source can be Reader, InputStream, File, byte[], char[], String.
+   Source can be Reader, InputStream, File, byte[], ByteBuffer, char[], String.
    
    opts is a map that can include the following keys:
   
-     :eof         - Value to return on end-of-file. When not supplied, eof throws
-                    an exception.
-     :readers     - A map of tag symbol -> data-reader fn to be considered
-                    before default-data-readers
-     :default     - A function of two args, that will, if present and no reader is
-                    found for a tag, be called with the tag and the value
-     :buffer      - Int, size of buffer to read from source (1024 by default)
-     :count-lines - Boolean, whether to report line/column numbers in exceptions
-                    (false by default)"
+     :eof               - Value to return on end-of-file. When not supplied, eof
+                          throws an exception.
+     :readers           - A map of tag symbol -> data-reader fn to be considered
+                          before default-data-readers
+     :default           - A function of two args, that will, if present and no
+                          reader is found for a tag, be called with the tag and the
+                          value
+     :buffer            - Int, size of buffer to read from source (1024 by default)
+     :max-buffer        - Int, let buffer grow up to this size when tokens often
+                          cross its end. Files and streams are read in chunks of at
+                          least that many bytes (same as :buffer by default)
+     :count-lines       - Boolean, whether to report line/column numbers in
+                          exceptions (false by default)
+     :mmap              - Boolean, memory-map File sources instead of reading them
+                          through FileInputStream (false by default)
+     :dedupe-strings    - Boolean or Int, return the same instance for repeated
+                          strings up to 32 chars, using a cache of that many slots
+                          (1024 if true). Saves heap when values repeat a lot (false
+                          by default)
+     :primitive-vectors - Boolean, read vectors that contain only longs or only
+                          doubles as fast_edn.LongVector/DoubleVector backed by
+                          long[]/double[] (false by default)
+     :box-cache         - Boolean or [min max], reuse boxed Longs and whole Doubles
+                          in [min, max) and Characters below \\u0800 instead of
+                          allocating new ones ([-32768 65536] if true, also the
+                          widest range allowed). Saves heap on numeric data (false
+                          by default)
+     :max-depth         - Int, throw when collections are nested deeper than that.
+                          Nesting doesn't use Java stack, so any depth can be read
+                          given enough memory (unlimited by default)"
   ([source]
-   (EdnParser. false 1024 default-data-readers nil true nil (reader source)))
+   (-> (EdnParser. false 1024 default-data-readers nil true nil nil)
+     (set-source nil source)))
   ([opts source]
-   (EdnParser.
-     (boolean (:count-lines opts false))
-     (:buffer opts 1024)
-     (merge default-data-readers (:readers opts))
-     (:default opts)
-     (not (contains? opts :eof))
-     (:eof opts)
-     (reader source))))
+   (let [dedupe    (:dedupe-strings opts)
+         box-cache (:box-cache opts)]
+     (cond->
+       (-> (EdnParser.
+             (boolean (:count-lines opts false))
+             (:buffer opts 1024)
+             (merge default-data-readers (:readers opts))
+             (:default opts)
+             (not (contains? opts :eof))
+             (:eof opts)
+             nil)
+         (set-source opts source))
+       dedupe (.setDedupeStrings (if (integer? dedupe) dedupe 1024))
+       (:primitive-vectors opts) (.setPrimitiveVectors true)
+       (:max-depth opts) (.setMaxDepth (:max-depth opts))
+       (:max-buffer opts) (.setMaxBuffer (:max-buffer opts))
+       box-cache (.setBoxCache
+                   (if (vector? box-cache) (first box-cache) EdnParser$BoxCache/MIN)
+                   (if (vector? box-cache) (second box-cache) EdnParser$BoxCache/MAX))))))
 
 (defn set-reader
   "Reuses parser with all its options and allocated buffers.
    
-   Source can be Reader, InputStream, File, byte[], char[], String."
+   Source can be Reader, InputStream, File, byte[], ByteBuffer, char[], String."
   [^EdnParser parser source]
-  (.setReader parser (reader source)))
+  (set-source parser nil source))
+
+(defn parser-pool
+  "Creates a thread-safe pool of parsers that share the same opts (see `parser`).
+   Can be passed to `read-string` instead of opts to skip creating a parser and
+   its buffers on every call.
+
+   Holds at most size parsers (2 * number of CPUs by default). Parsers are taken
+   and returned without locking, so it's safe to use from virtual threads."
+  ([opts]
+   (parser-pool opts (* 2 (.availableProcessors (Runtime/getRuntime)))))
+  ([opts size]
+   (EdnParserPool. #(parser opts "") size)))
+
+(def ^:private default-pool
+  (EdnParserPool.
+    #(EdnParser. false 1024 default-data-readers nil false nil nil)
+    (* 2 (.availableProcessors (Runtime/getRuntime)))))
+
+;; opts -> pool, slot picked by opts hash. A miss replaces whatever was in the
+;; slot, so per-call opts (fresh closures, :eof values) can't pin pools forever
+;; or lock hot opts out, and there's no shared atom to contend on. Every pool
+;; created here is stored, callers that churn opts should pass `parser-pool`
+(def ^:private pools
+  (AtomicReferenceArray. 16))
+
+(defn- pool-for ^EdnParserPool [opts]
+  (let [idx   (bit-and (hash opts) (dec (.length pools)))
+        entry ^MapEntry (.get pools idx)
+        key   (when entry (.key entry))]
+    ;; opts are usually the same map instance, skip deep compare for those
+    (if (and entry (or (identical? opts key) (= opts key)))
+      (.val entry)
+      (let [pool (parser-pool opts)]
+        (.set pools idx (MapEntry. opts pool))
+        pool))))
 
 (defn read-next
   "For cases when you need to read multiple objects from the same Reader:
@@ -98,53 +185,433 @@
   [^EdnParser parser]
   (.readNext parser))
 
+(defn read-events
+  "Reads all objects from source, reporting them to handler (an instance
+   of fast_edn.EdnEventHandler) as a stream of events instead of building
+   Clojure data structures:
+
+     (read-events
+       (reify fast_edn.EdnEventHandler
+         (keyword [_ kw]
+           (println kw)))
+       \"{:a [:b :c]}\")
+
+   Data readers are not invoked, tagged values are reported via `tag` event.
+   Duplicate keys in maps and sets are not checked. Closes source afterwards.
+
+   Source can be Reader, InputStream, File, byte[], ByteBuffer, char[], String.
+   opts are the same as in `parser`."
+  ([^EdnEventHandler handler source]
+   (read-events {} handler source))
+  ([opts ^EdnEventHandler handler source]
+   (let [p ^EdnParser (parser opts source)]
+     (try
+       (while (.readEvents p handler))
+       (finally
+         (close-source p))))))
+
 (defn read-once
   "Reads one object from source. Source can be Reader, InputStream, File,
-   byte[], char[], String. Closes source afterwards. Throws if empty.
+   byte[], ByteBuffer, char[], String. Closes source afterwards. Throws if empty.
    
-   Source can be Reader, InputStream, File, byte[], char[], String.
+   Source can be Reader, InputStream, File, byte[], ByteBuffer, char[], String.
    
    opts is a map that can include the following keys:
   
-     :eof         - Value to return on end-of-file. When not supplied, eof throws
-                    an exception.
-     :readers     - A map of tag symbol -> data-reader fn to be considered
-                    before default-data-readers
-     :default     - A function of two args, that will, if present and no reader is
-                    found for a tag, be called with the tag and the value
-     :buffer      - Int, size of buffer to read from source (1024 by default)
-     :count-lines - Boolean, whether to report line/column numbers in exceptions
-                    (false by default)"
+     :eof               - Value to return on end-of-file. When not supplied, eof
+                          throws an exception.
+     :readers           - A map of tag symbol -> data-reader fn to be considered
+                          before default-data-readers
+     :default           - A function of two args, that will, if present and no
+                          reader is found for a tag, be called with the tag and the
+                          value
+     :buffer            - Int, size of buffer to read from source (1024 by default)
+     :max-buffer        - Int, let buffer grow up to this size when tokens often
+                          cross its end. Files and streams are read in chunks of at
+                          least that many bytes (same as :buffer by default)
+     :count-lines       - Boolean, whether to report line/column numbers in
+                          exceptions (false by default)
+     :mmap              - Boolean, memory-map File sources instead of reading them
+                          through FileInputStream (false by default)
+     :dedupe-strings    - Boolean or Int, return the same instance for repeated
+                          strings up to 32 chars, using a cache of that many slots
+                          (1024 if true). Saves heap when values repeat a lot (false
+                          by default)
+     :primitive-vectors - Boolean, read vectors that contain only longs or only
+                          doubles as fast_edn.LongVector/DoubleVector backed by
+                          long[]/double[] (false by default)
+     :box-cache         - Boolean or [min max], reuse boxed Longs and whole Doubles
+                          in [min, max) and Characters below \\u0800 instead of
+                          allocating new ones ([-32768 65536] if true, also the
+                          widest range allowed). Saves heap on numeric data (false
+                          by default)
+     :max-depth         - Int, throw when collections are nested deeper than that.
+                          Nesting doesn't use Java stack, so any depth can be read
+                          given enough memory (unlimited by default)"
   ([source]
-   (with-open [reader (reader source)]
-     (-> (EdnParser. false 1024 default-data-readers nil false nil reader)
-       (.readNext))))
+   (let [p (-> (EdnParser. false 1024 default-data-readers nil false nil nil)
+             (set-source nil source))]
+     (try
+       (.readNext p)
+       (finally
+         (close-source p)))))
   ([opts source]
-   (with-open [reader (reader source)]
-     (-> ^EdnParser (parser opts reader)
-       (.readNext)))))
+   (let [p ^EdnParser (parser opts source)]
+     (try
+       (.readNext p)
+       (finally
+         (close-source p))))))
+
+(defn- add-path [selection path]
+  (cond
+    (true? selection) true
+    (empty? path)     true
+    :else             (assoc selection (first path) (add-path (get selection (first path) {}) (next path)))))
+
+(defn read-paths
+  "Reads one top-level map from source, keeping only values at paths (a
+   collection of key paths, as in `get-in`). Everything else is skipped
+   without being parsed:
+
+     (read-paths [[:meta :id] [:type]] \"{:meta {:id 1, :size 2}, :type :doc, :body [...]}\")
+     ; => {:meta {:id 1}, :type :doc}
+
+   Only map literals are descended into. Returns nil if source is not a map.
+   Skipped values are not validated.
+
+   Source can be Reader, InputStream, File, byte[], ByteBuffer, char[], String.
+   opts are the same as in `read-once`."
+  ([paths source]
+   (read-paths {} paths source))
+  ([opts paths source]
+   (let [p ^EdnParser (parser opts source)]
+     (try
+       (.readNextSelected p (reduce add-path {} paths))
+       (finally
+         (close-source p))))))
 
 (defn read-string
   "Reads one object from the string s. Returns nil when s is nil or empty.
 
    Reads data in the EDN format: https://github.com/edn-format/edn
 
+   Parsers are pooled and reused between calls, for up to 16 recently used opts.
+   Instead of opts, a pool created with `parser-pool` can be passed. Prefer that
+   when opts are built per call or many different opts are in use: each new opts
+   map is hashed, compared and gets a pool of its own.
+
    opts is a map that can include the following keys:
   
-     :eof         - Value to return on end-of-file. When not supplied, eof throws
-                    an exception.
-     :readers     - A map of tag symbol -> data-reader fn to be considered
-                    before default-data-readers
-     :default     - A function of two args, that will, if present and no reader is
-                    found for a tag, be called with the tag and the value
-     :buffer      - Int, size of buffer to read from source (1024 by default)
-     :count-lines - Boolean, whether to report line/column numbers in exceptions
-                    (false by default)"
+     :eof               - Value to return on end-of-file. When not supplied, eof
+                          throws an exception.
+     :readers           - A map of tag symbol -> data-reader fn to be considered
+                          before default-data-readers
+     :default           - A function of two args, that will, if present and no
+                          reader is found for a tag, be called with the tag and the
+                          value
+     :buffer            - Int, size of buffer to read from source (1024 by default)
+     :max-buffer        - Int, let buffer grow up to this size when tokens often
+                          cross its end. Files and streams are read in chunks of at
+                          least that many bytes (same as :buffer by default)
+     :count-lines       - Boolean, whether to report line/column numbers in
+                          exceptions (false by default)
+     :dedupe-strings    - Boolean or Int, return the same instance for repeated
+                          strings up to 32 chars, using a cache of that many slots
+                          (1024 if true). Saves heap when values repeat a lot (false
+                          by default)
+     :primitive-vectors - Boolean, read vectors that contain only longs or only
+                          doubles as fast_edn.LongVector/DoubleVector backed by
+                          long[]/double[] (false by default)
+     :box-cache         - Boolean or [min max], reuse boxed Longs and whole Doubles
+                          in [min, max) and Characters below \\u0800 instead of
+                          allocating new ones ([-32768 65536] if true, also the
+                          widest range allowed). Saves heap on numeric data (false
+                          by default)
+     :max-depth         - Int, throw when collections are nested deeper than that.
+                          Nesting doesn't use Java stack, so any depth can be read
+                          given enough memory (unlimited by default)"
   ([s]
    (when s
-     (-> (EdnParser. false 1024 default-data-readers nil false nil (StringReader. s))
-       (.readNext))))
+     (.read ^EdnParserPool default-pool ^String s)))
   ([opts s]
    (when s
-     (-> ^EdnParser (parser opts (StringReader. s))
-       (.readNext)))))
+     (if (instance? EdnParserPool opts)
+       (.read ^EdnParserPool opts ^String s)
+       (.read (pool-for opts) ^String s)))))
+
+(defn- chars-of ^chars [opts source]
+  (condp instance? source
+    String (.toCharArray ^String source)
+    char/1 source
+    #_else (with-open [rdr (reader opts source)]
+             (.toCharArray ^String (slurp rdr)))))
+
+(defn- read-chunk [opts ^chars buf from to callback]
+  (let [eof (Object.)
+        p   (-> ^EdnParser (parser (assoc opts :eof eof) "")
+              (.setInput buf (int from) (int to)))
+        ;; report offsets, lines and columns from the start of buf, not chunk.
+        ;; Lines are only counted on error, from readStart
+        _   (set! (.-readGlobalPos p) (int 0))
+        _   (set! (.-readStart p) (int 0))
+        acc (ArrayList.)]
+    (loop []
+      (let [o (.readNext p)]
+        (cond
+          (identical? eof o) acc
+          callback           (do (callback o) (recur))
+          :else              (do (.add acc o) (recur)))))))
+
+(defn read-all-parallel
+  "Reads all top-level objects from source using all cores. Useful for
+   newline-delimited logs and other streams of many independent forms.
+
+   Source is split between top-level forms (without parsing it, see
+   fast_edn.EdnScanner) and chunks are read in parallel by separate parsers.
+   Source can be String or char[], other sources (see `reader`) are read
+   into memory first.
+
+   opts is a map that accepts same keys as `parser` (except :eof) plus:
+
+     :pool     - ForkJoinPool to run on (ForkJoinPool/commonPool by default)
+     :chunks   - Int, how many chunks to split input into (4 per thread
+                 by default)
+     :callback - A function of one arg. When supplied, it is called with
+                 every object as soon as it’s read, from multiple threads
+                 and in no particular order, and read-all-parallel returns nil
+
+   Without :callback, returns a vector of all objects in the source order."
+  ([source]
+   (read-all-parallel {} source))
+  ([opts source]
+   (let [buf      (chars-of opts source)
+         len      (alength buf)
+         ^ForkJoinPool pool (or (:pool opts) (ForkJoinPool/commonPool))
+         chunks   (max 1 (:chunks opts (* 4 (.getParallelism pool))))
+         splits   (EdnScanner/split buf 0 len 0 1 (quot len chunks))
+         bounds   (distinct (concat [0] splits [len]))
+         callback (:callback opts)
+         opts     (dissoc opts :pool :chunks :callback :eof)
+         tasks    (mapv
+                    (fn [[from to]]
+                      (.submit pool ^Callable #(read-chunk opts buf from to callback)))
+                    (partition 2 1 bounds))
+         results  (mapv #(ForkJoinTask/.join %) tasks)]
+     (when-not callback
+       (persistent!
+         (reduce #(reduce conj! %1 %2) (transient []) results))))))
+
+(defn- read-children-parallel [opts ^chars buf from ^ForkJoinPool pool chunks]
+  (let [len    (alength buf)
+        open   (aget buf from)
+        splits (EdnScanner/splitChildren buf from len (if (= \{ open) 2 1) (quot (- len from) chunks))
+        close  (aget splits (dec (alength splits)))]
+    (when (pos? close)
+      (let [bounds  (distinct (concat [(inc from)] (butlast splits) [(dec close)]))
+            tasks   (mapv
+                      (fn [[from to]]
+                        ;; join would rethrow a copy of exception made by ForkJoinPool,
+                        ;; pass the original one through as a value
+                        (.submit pool ^Callable #(try
+                                                   (read-chunk opts buf from to nil)
+                                                   (catch Throwable t
+                                                     t))))
+                      (partition 2 1 bounds))
+            results (mapv #(let [res (ForkJoinTask/.join %)]
+                             (if (instance? Throwable res)
+                               (throw res)
+                               res))
+                      tasks)]
+        (case open
+          \[ (persistent!
+                (reduce #(reduce conj! %1 %2) (transient []) results))
+          \{ (persistent!
+                (reduce
+                  (fn [m ^ArrayList kvs]
+                    (when (odd? (.size kvs))
+                      (throw (RuntimeException. "Map literal must contain an even number of forms")))
+                    (loop [m m, i 0]
+                      (if (< i (.size kvs))
+                        (let [k  (.get kvs i)
+                              n  (count m)
+                              m' (assoc! m k (.get kvs (inc i)))]
+                          (when (= n (count m'))
+                            (throw (RuntimeException. (str "Duplicate key: " (pr-str k)))))
+                          (recur m' (+ i 2)))
+                        m)))
+                  (transient {}) results)))))))
+
+(defn read-parallel
+  "Reads one object from source, same as `read-once`. If source is large
+   and contains a single top-level vector or map, its elements are read
+   in parallel using all cores.
+
+   Source is scanned first to find boundaries between elements (see
+   fast_edn.EdnScanner), then every chunk of elements is read by its own
+   parser and results are combined into one vector or map. If source can't
+   be split (e.g. the collection is not closed), it's read sequentially.
+   Exceptions from parsers and data readers are rethrown as is.
+
+   Source can be String or char[], other sources (see `reader`) are read
+   into memory first.
+
+   opts is a map that accepts same keys as `parser` plus:
+
+     :pool     - ForkJoinPool to run on (ForkJoinPool/commonPool by default)
+     :chunks   - Int, how many chunks to split input into (4 per thread
+                 by default)
+     :min-size - Int, sources shorter than this many chars are read
+                 sequentially (65536 by default)"
+  ([source]
+   (read-parallel {} source))
+  ([opts source]
+   (let [buf    (chars-of opts source)
+         len    (alength buf)
+         from   (loop [i 0]
+                  (if (and (< i len) (EdnParser/isWhitespace (int (aget buf i))))
+                    (recur (inc i))
+                    i))
+         ^ForkJoinPool pool (or (:pool opts) (ForkJoinPool/commonPool))
+         chunks (max 1 (:chunks opts (* 4 (.getParallelism pool))))
+         popts  (dissoc opts :pool :chunks :min-size)]
+     (or
+       (when (and (< from len)
+               (>= len (:min-size opts 65536))
+               (#{\[ \{} (aget buf from)))
+         (read-children-parallel (dissoc popts :eof) buf from pool chunks))
+       (read-once popts buf)))))
+
+(defn read-lazy
+  "Reads one object from source, same as `read-once`, but vectors and maps
+   are not parsed upfront. They are views over source that parse elements
+   on first access (and remember them), so reading one field of a large
+   message costs little more than scanning it:
+
+     (let [m (read-lazy \"{:type :event, :payload [...]}\")]
+       (case (:type m)      ; parses only `:event`
+         :event (forward (raw m :payload))))
+
+   Map keys are parsed right away. Nested vectors and maps are lazy too.
+   Brackets are matched upfront, other than that unread parts are not
+   validated. Lazy values retain the whole source.
+   Unless `:writers` are given, `write-string` and `write` copy lazy
+   collections from source as is.
+
+   Source can be String or char[], other sources (see `reader`) are read
+   into memory first. opts are the same as in `parser`. :max-depth is
+   checked for the whole source upfront. With :primitive-vectors, vectors
+   that start with a number are parsed right away, to become
+   LongVector/DoubleVector."
+  ([source]
+   (read-lazy {} source))
+  ([opts source]
+   (.read (LazyEdn. (chars-of opts source) (pool-for opts)))))
+
+(defn raw
+  "Source text of a vector or map returned by `read-lazy`, or of its element
+   at index/key, without parsing it. Returns nil for other values and for
+   missing elements."
+  ([x]
+   (when (instance? LazyEdn$View x)
+     (.raw ^LazyEdn$View x)))
+  ([x key]
+   (when (instance? LazyEdn$View x)
+     (.rawAt ^LazyEdn$View x key))))
+
+(defn feeder
+  "Creates a push-style reader of top-level forms for input that arrives in
+   fragments, e.g. from a non-blocking socket:
+
+     (let [f (feeder)]
+       (feed f (.getBytes \"{:a 1} [1 \"))  ; => [{:a 1}]
+       (feed f (.getBytes \"2] 3\"))        ; => [[1 2]]
+       (finish-feed f))                    ; => [3]
+
+   Incomplete input is scanned once and kept until the rest of its form
+   arrives. Parsers are taken from a shared pool only while reading, so idle
+   feeders hold no parser. Not thread-safe.
+
+   opts are the same as in `parser` (except :eof)."
+  ([]
+   (feeder {}))
+  ([opts]
+   (EdnFeeder. (pool-for (assoc opts :eof ::eof)))))
+
+(defn feed
+  "Feeds next chunk of input to feeder. Chunk can be ByteBuffer or byte[]
+   (UTF-8, multi-byte sequences may be split between chunks), String or
+   char[]. Never blocks. Returns a vector of forms completed by this chunk,
+   empty if more input is needed. Throws on malformed input."
+  [^EdnFeeder feeder chunk]
+  (vec
+    (condp instance? chunk
+      ByteBuffer (.feed feeder ^ByteBuffer chunk)
+      byte/1     (.feed feeder (ByteBuffer/wrap chunk))
+      String     (let [chars (.toCharArray ^String chunk)]
+                   (.feed feeder chars 0 (alength chars)))
+      char/1     (.feed feeder ^chars chunk 0 (alength ^chars chunk))
+      #_else     (throw (ex-info (str "Expected ByteBuffer, byte[], String or char[], got: " (class chunk)) {:chunk chunk})))))
+
+(defn finish-feed
+  "Call when input has ended. Returns a vector of forms that were only
+   terminated by the end of input (e.g. a number). Throws if input ends
+   in the middle of a form."
+  [^EdnFeeder feeder]
+  (vec (.finish feeder)))
+
+(defn- edn-writer ^EdnWriter [opts]
+  (EdnWriter. (:buffer opts 1024) (:writers opts)))
+
+(defn write-string
+  "Writes value as an EDN string. Same output as `pr-str` for everything
+   that can be represented in EDN, but faster. Metadata is not written.
+
+   opts is a map that can include the following keys:
+
+     :writers - A map of Class -> fn of one argument. Fn should return a value
+                to write instead of the original one, e.g. a tagged-literal:
+
+                  {java.net.URI #(tagged-literal 'uri (str %))}
+
+                Returned value is written without looking up a writer for it
+                again (its elements are).
+
+                Types without a writer that are not supported by EDN are written
+                with `pr-str`
+     :buffer  - Int, initial size of buffer (1024 by default)"
+  ([value]
+   (-> (EdnWriter. 1024 nil) (.write value) (.toString)))
+  ([opts value]
+   (-> (edn-writer opts) (.write value) (.toString))))
+
+(defn write-bytes
+  "Same as `write-string`, but returns UTF-8 encoded byte[]"
+  ([value]
+   (-> (EdnWriter. 1024 nil) (.write value) (.toBytes)))
+  ([opts value]
+   (-> (edn-writer opts) (.write value) (.toBytes))))
+
+(defn write
+  "Writes value as EDN to out, which can be Writer, OutputStream or File.
+   Output is produced through a fixed-size buffer that is flushed to out
+   as it fills, so memory use doesn’t depend on the size of value. Lazy seqs
+   are realized one element at a time without holding on to their head, and
+   anything reducible (IReduceInit, e.g. an eduction) is written as a list,
+   so huge or generated collections never have to be in memory at once.
+
+   OutputStream and File get UTF-8. Writer/OutputStream is flushed but not
+   closed, File is closed afterwards.
+
+   opts are the same as in `write-string`, :buffer is 8192 by default."
+  ([out value]
+   (write {} out value))
+  ([opts out value]
+   (let [size    (:buffer opts 8192)
+         writers (:writers opts)]
+     (condp instance? out
+       Writer       (.flush (.write (EdnWriter. size writers ^Writer out) value))
+       OutputStream (.flush (.write (EdnWriter. size writers ^OutputStream out) value))
+       File         (with-open [os (FileOutputStream. ^File out)]
+                      (write opts os value))
+       #_else       (throw (ex-info (str "Expected Writer, OutputStream or File, got: " (class out)) {:out out})))
+     nil)))
@@ -42,6 +42,20 @@
   (when-not (instance? Throwable %)
     (throw (ex-info "edn/read should have thrown, see ex-data" {:printed o :read %}))))
 
+(defn write-roundtrip
+  "Write an object with edn/write-string and read it back. Returns rather
+   than throws any exceptions."
+  [o]
+  (try
+    (-> o edn/write-string edn/read-string)
+    (catch Throwable t t)))
+
+(defspec types-that-should-write-roundtrip
+  write-roundtrip
+  [^{:tag cgen/ednable} o]
+  (when-not (= o %)
+    (throw (ex-info "Value cannot roundtrip, see ex-data" {:written o :read %}))))
+
 (def cpus
   8)
 
@@ -54,6 +68,9 @@
 (deftest no-roundtrip-test
   (runner/run cpus time-ms #'fast-edn.gen-test/types-that-should-not-roundtrip))
 
+(deftest write-roundtrip-test
+  (runner/run cpus time-ms #'fast-edn.gen-test/types-that-should-write-roundtrip))
+
 (comment
   (try
     (runner/run cpus time-ms #'fast-edn.gen-test/types-that-should-roundtrip)
@@ -135,3 +135,93 @@
    a roundtrippable way."
   []
   (gen/one-of namespace var))
+
+;; Production-shaped corpus: event maps with features that dev/data lacks
+
+(def corpus-features
+  "Each can be switched on per event, see `corpus-event`:
+
+     :inst    - #inst timestamps instead of epoch millis
+     :uuid    - #uuid ids instead of longs
+     :tagged  - custom tagged literals (#geo/point, #money/amount)
+     :meta    - ^{...} metadata on payloads
+     :ns-maps - maps printed as #:ns{...} instead of {:ns/key ...}
+     :floats  - full-precision and huge doubles, BigDecimals instead of small ints"
+  [:inst :uuid :tagged :meta :ns-maps :floats])
+
+(def ^:private event-types
+  [:order/created :order/paid :order/shipped :user/signed-up :user/logged-in :cart/updated])
+
+(def ^:private skus
+  (mapv #(str "SKU-" (+ 10000 (* 7919 %))) (range 50)))
+
+(defn- corpus-id [uuid?]
+  (if uuid?
+    (gen/uuid)
+    (gen/uniform 0 Long/MAX_VALUE)))
+
+(defn- corpus-amount [floats?]
+  (if floats?
+    (gen/one-of
+      #(* (gen/double) (Math/pow 10 (gen/uniform -300 300)))
+      #(+ (gen/uniform 0 100000) (gen/double))
+      #(bigdec (/ (gen/uniform 0 10000000) 100.0)))
+    (gen/uniform 0 100000)))
+
+(defn corpus-event
+  "One event map. features is a map of feature (see `corpus-features`) ->
+   probability in [0, 1] that event uses it. Returns [event print-ns-maps?]"
+  [features]
+  (let [use?    (fn [feature] (< (gen/float) (get features feature 0)))
+        uuid?   (use? :uuid)
+        inst?   (use? :inst)
+        tagged? (use? :tagged)
+        meta?   (use? :meta)
+        floats? (use? :floats)
+        ns-map? (use? :ns-maps)
+        at      (+ 1700000000000 (gen/uniform 0 100000000000))
+        items   (vec
+                  (for [_ (range (gen/uniform 1 6))]
+                    {:item/sku   (gen/rand-nth skus)
+                     :item/qty   (gen/uniform 1 10)
+                     :item/price (if tagged?
+                                   (tagged-literal 'money/amount [(corpus-amount floats?) (gen/rand-nth [:EUR :USD :GBP])])
+                                   (corpus-amount floats?))}))
+        payload {:order/id    (corpus-id uuid?)
+                 :order/items items
+                 :order/total (corpus-amount floats?)}
+        event   {:event/id      (corpus-id uuid?)
+                 :event/type    (gen/rand-nth event-types)
+                 :event/at      (if inst? (java.util.Date. (long at)) at)
+                 :event/user    {:user/id    (corpus-id uuid?)
+                                 :user/name  (gen/string gen/printable-ascii-char (gen/uniform 5 20))
+                                 :user/roles (set (gen/reps (gen/uniform 0 3) #(gen/rand-nth [:admin :support :customer :beta])))}
+                 :event/where   (if tagged?
+                                  (tagged-literal 'geo/point [(gen/double) (gen/double)])
+                                  [(gen/double) (gen/double)])
+                 :event/payload (if meta?
+                                  (with-meta payload {:source  (gen/rand-nth [:web :mobile :api])
+                                                      :version (gen/uniform 1 5)
+                                                      :traced  (gen/boolean)})
+                                  payload)}]
+    [event ns-map?]))
+
+(defn corpus
+  "EDN text of a vector of `corpus-event`s, about size chars long. Same
+   seed, size and features always give the same text.
+
+     (corpus {:seed 1, :size 100000, :features {:inst 1, :ns-maps 0.5}})
+
+   Tagged literals need `:default tagged-literal` (or readers) to be read."
+  [{:keys [seed size features]
+    :or   {seed 42, size 100000}}]
+  (binding [gen/*rnd* (java.util.Random. seed)
+            *print-meta* true]
+    (let [sb (StringBuilder. "[")]
+      (while (< (.length sb) size)
+        (let [[event ns-map?] (corpus-event features)]
+          (when (> (.length sb) 1)
+            (.append sb "\n "))
+          (.append sb ^String (binding [*print-namespace-maps* ns-map?]
+                                (pr-str event)))))
+      (str (.append sb "]")))))
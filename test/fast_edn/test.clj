@@ -35,16 +35,76 @@
   
   (let [source (io/file "test/fast_edn/edn.edn")]
     (is (= {:a 1} (edn/read-once source))))
+
+  (let [source (io/file "test/fast_edn/edn.edn")]
+    (is (= {:a 1} (edn/read-once {:mmap true} source))))
   
   (let [source (.getBytes "{:a 1}")]
     (is (= {:a 1} (edn/read-once source))))
   
+  (let [source (java.nio.ByteBuffer/wrap (.getBytes "{:a 1}"))]
+    (is (= {:a 1} (edn/read-once source))))
+
+  (let [bytes  (.getBytes "{:a 1}")
+        source (doto (java.nio.ByteBuffer/allocateDirect (count bytes))
+                 (.put bytes)
+                 (.flip))]
+    (is (= {:a 1} (edn/read-once source))))
+
   (let [source (.toCharArray "{:a 1}")]
     (is (= {:a 1} (edn/read-once source))))
   
   (let [source "{:a 1}"]
     (is (= {:a 1} (edn/read-once source)))))
   
+(defn byte-by-byte-stream [^bytes bytes]
+  (let [in (java.io.ByteArrayInputStream. bytes)]
+    (proxy [java.io.FilterInputStream] [in]
+      (read [buf off len]
+        (.read in buf off (min 1 len))))))
+
+(deftest utf8-test
+  (let [s     "[\"abc\" \"абв\" :ключ/слово символ \"€ ✓\" \"😀 𝄞\" \\ж]"
+        v     ["abc" "абв" :ключ/слово 'символ "€ ✓" "😀 𝄞" \ж]
+        bytes (.getBytes s "UTF-8")]
+    (is (= v (edn/read-once bytes)))
+    (is (= v (edn/read-once (java.nio.ByteBuffer/wrap bytes))))
+    (is (= v (edn/read-once (doto (java.nio.ByteBuffer/allocateDirect (count bytes))
+                              (.put bytes)
+                              (.flip)))))
+    (is (= v (edn/read-once (java.io.ByteArrayInputStream. bytes))))
+    (is (= v (edn/read-once (byte-by-byte-stream bytes))))
+    (doseq [buf (range 1 11)]
+      (is (= v (edn/read-once {:buffer buf} bytes)))
+      (is (= v (edn/read-once {:buffer buf} (byte-by-byte-stream bytes))))))
+
+  (testing "malformed input is replaced with U+FFFD"
+    (are [bs s] (= s (edn/read-once (byte-array (map unchecked-byte bs))))
+      [0x22 0xFF 0x22]           "\uFFFD"
+      [0x22 0x80 0x61 0x22]      "\uFFFDa"
+      [0x22 0xC3 0x22]           "\uFFFD"
+      [0x22 0xE2 0x82 0x22]      "\uFFFD"
+      [0x22 0xED 0xA0 0x80 0x22] "\uFFFD"
+      [0x22 0xF0 0x9F 0x98 0x22] "\uFFFD")))
+
+(deftest mmap-test
+  (let [file (java.io.File/createTempFile "fast_edn" ".edn")
+        v    (vec (for [i (range 100)] {:i i, :s (str "абв😀" i)}))]
+    (try
+      (spit file (pr-str v) :encoding "UTF-8")
+      (is (= v (edn/read-once {:mmap true} file)))
+      ;; sliding window, multi-byte sequences cross window boundaries
+      (doseq [window [1 2 3 7 64 1000]]
+        (with-open [ch (java.nio.channels.FileChannel/open (.toPath file) (into-array java.nio.file.OpenOption [java.nio.file.StandardOpenOption/READ]))
+                    rdr (fast_edn.MappedFileReader. ch window)]
+          (is (= v (edn/read-next (edn/parser {:buffer 10} rdr))))))
+      (spit file "")
+      (is (thrown-with-msg? Exception #"EOF" (edn/read-once {:mmap true} file)))
+      (is (= ::eof (edn/read-once {:mmap true, :eof ::eof} file)))
+      (finally
+        (.delete file)))
+    (is (thrown? java.nio.file.NoSuchFileException (edn/read-once {:mmap true} file)))))
+
 (deftest basics-test
   (are [s v] (= v (edn/read-string s))
     ""    nil
@@ -484,7 +544,35 @@
     ;; issue-13 -- 0-1 and 0+1 are recognized as numbers
     "0-1"
     "0+1"
-    ))
+    )
+
+  (testing "long overflow"
+    (are [s e] (let [v (edn/read-string s)]
+                 (and
+                   (= e v)
+                   (= (class e) (class v))))
+      "9223372036854775807"   9223372036854775807
+      "9223372036854775808"   9223372036854775808N
+      "-9223372036854775807"  -9223372036854775807
+      "99999999999999999999"  99999999999999999999N
+      "0x7FFFFFFFFFFFFFFF"    0x7FFFFFFFFFFFFFFF
+      "0x8000000000000000"    0x8000000000000000N
+      "0777777777777777777777" 0777777777777777777777
+      "01777777777777777777777" 01777777777777777777777N
+      "36r1Y2P0IJ32E8E7"      36r1Y2P0IJ32E8E7
+      "36r1Y2P0IJ32E8E8"      9223372036854775808N
+      "2r111111111111111111111111111111111111111111111111111111111111111" Long/MAX_VALUE
+      "-9223372036854775809"  -9223372036854775809N
+      "0x1FFFFFFFFFFFFFFFFF"  0x1FFFFFFFFFFFFFFFFFN
+      "2r1111111111111111111111111111111111111111111111111111111111111111" 18446744073709551615N))
+
+  (are [s m] (thrown-with-msg? Exception m (edn/read-string s))
+    "36r"   #"Zero length BigInteger"
+    "37r1"  #"Radix out of range"
+    "1r1"   #"Radix out of range"
+    "2r12"  #"For input string: \"12\""
+    "2r11111111111111111111111111111111111111111111111111111111111111112" #"For input string"
+    "0xFG"  #"For input string: \"FG\""))
 
 (deftest floats-test
   (are [s e] (= e (edn/read-string s))
@@ -555,7 +643,21 @@
     "##In"       #"Unknown symbolic value: ##In"
     "##x1"       #"Unknown symbolic value: ##x1"
     "##nil"      #"Unknown symbolic value: ##nil"
-    "##Inf/"     #"Unknown symbolic value: ##Inf/"))
+    "##Inf/"     #"Unknown symbolic value: ##Inf/")
+
+  (testing "same as Double/parseDouble"
+    (let [rnd (java.util.Random. 42)]
+      (doseq [s (concat
+                  ["9007199254740993" "1e22" "1e23" "1.7976931348623157e308" "1.7976931348623159e308"
+                   "2.2250738585072011e-308" "4.9e-324" "2.47e-324" "1e-400" "1e400" "0.1" "0.3"
+                   "123456789012345678.0" "1.00000000000000011102230246251565404236316680908203125"
+                   "00.5" "0.000" "1e0" "9.999999999999999e22" "7.2057594037927933e16"]
+                  (repeatedly 10000 #(str (Double/longBitsToDouble (.nextLong rnd))))
+                  (repeatedly 10000 #(str (.nextDouble rnd)))
+                  (repeatedly 10000 #(str (.nextInt rnd 1000000) "." (.nextInt rnd 1000000) "e" (- (.nextInt rnd 700) 350))))
+              :when (not (str/includes? s "N"))
+              :let [e (Double/parseDouble s)]]
+        (is (= (Double/doubleToRawLongBits e) (Double/doubleToRawLongBits (edn/read-string s))) s)))))
 
 
 (deftest lists-test
@@ -569,7 +671,15 @@
   (are [s] (thrown? Exception (edn/read-string s))
     "("
     ")"
-    "(]"))
+    "(]")
+
+  (doseq [n [0 1 32 33 1000]
+          :let [l (apply list (range n))]]
+    (is (= l (edn/read-string (pr-str l))))
+    (is (= (list l [l] l) (edn/read-string (pr-str (list l [l] l)))))
+    (is (list? (edn/read-string (pr-str l)))))
+
+  (is (thrown-with-msg? Exception #"EOF while reading list: \(1 \(2 3\) 4" (edn/read-string "(1 (2 3) 4"))))
 
 
 (deftest vectors-test
@@ -584,7 +694,16 @@
   (are [s] (thrown? Exception (edn/read-string s))
     "["
     "]"
-    "[)"))
+    "[)")
+
+  (doseq [n [0 1 31 32 33 64 1000]
+          :let [v (vec (range n))]]
+    (is (= v (edn/read-string (pr-str v))))
+    (is (= [v {:v v} (list v) v] (edn/read-string (pr-str [v {:v v} (list v) v]))))
+    (is (instance? clojure.lang.PersistentVector (edn/read-string (pr-str v))))
+    (is (= (conj v :x) (conj (edn/read-string (pr-str v)) :x))))
+
+  (is (thrown-with-msg? Exception #"EOF while reading vector: \[0 1 2 .* 39" (edn/read-string (subs (pr-str (vec (range 40))) 0 110)))))
 
 
 (deftest maps-test
@@ -600,8 +719,171 @@
     "}"
     "{)"
     "{:a}"
-    "{:a 1 :a 2}"))
+    "{:a 1 :a 2}")
+
+  (let [m8  (into {} (map #(vector (keyword (str "k" %)) %)) (range 8))
+        m9  (into {} (map #(vector (keyword (str "k" %)) %)) (range 9))
+        big (into {} (map #(vector % [% {% %}])) (range 1000))]
+    (is (instance? clojure.lang.PersistentArrayMap (edn/read-string (pr-str m8))))
+    (is (= m8 (edn/read-string (pr-str m8))))
+    (is (instance? clojure.lang.PersistentHashMap (edn/read-string (pr-str m9))))
+    (is (= m9 (edn/read-string (pr-str m9))))
+    (is (= big (edn/read-string (pr-str big))))
+    (is (= [m8 m9 big] (edn/read-string (pr-str [m8 m9 big])))))
 
+  (are [s m] (thrown-with-msg? Exception m (edn/read-string s))
+    "{:a 1 :a 2}"                                #"Duplicate key: :a reading map: \{:a 2,"
+    "{0 0 1 1 2 2 3 3 4 4 5 5 6 6 7 7 8 8 3 9}"  #"Duplicate key: 3 reading map: \{.*3 9"
+    "{[1] 1 (1) 2}"                              #"Duplicate key: \(1\)"
+    "{:a 1 :b}"                                  #"Map literal must contain an even number of forms: \{:a 1, :b,"
+    "{:a {:b 1 :c"                               #"EOF while reading map: \{:b 1,")
+
+  (testing "parser is reusable after error"
+    (let [parser (edn/parser (java.io.StringReader. "{:a [1 {:b 2 :b 3}]} {:c [4]}"))]
+      (is (thrown? Exception (edn/read-next parser)))
+      (is (= 0 (.-scratchTop ^fast_edn.EdnParser parser))))))
+
+
+(deftest deep-nesting-test
+  (let [n     100000
+        deep  (fn [open close inner]
+                (str (apply str (repeat n open)) inner (apply str (repeat n close))))
+        depth (fn [x step]
+                (loop [x x, d 1]
+                  (if-some [x' (step x)]
+                    (recur x' (inc d))
+                    d)))]
+    (is (= n (depth (edn/read-string (deep "[" "]" "")) #(first %))))
+    (is (= n (depth (edn/read-string (deep "(" ")" "")) #(first %))))
+    (is (= n (depth (edn/read-string (deep "#{" "}" "")) #(first %))))
+    (is (= n (depth (edn/read-string (deep "{:a " "}" "1")) #(let [v (:a %)] (when (map? v) v)))))
+    (is (= (inc n) (depth (edn/read-string (deep "#:x{:a " "}" "{}")) :x/a)))
+    (is (= n (depth (edn/read-string {:primitive-vectors true} (deep "[" "]" "1 2")) #(let [v (first %)] (when (vector? v) v)))))
+    (is (= {:a true} (meta (edn/read-string (deep "^:a " "" "[]")))))
+    (is (= n (depth (edn/read-string {:default (fn [_ v] [v])} (deep "#t " "" "1")) #(let [v (first %)] (when (vector? v) v)))))
+    (is (= 2 (edn/read-string (str (apply str (repeat n "#_ ")) (apply str (repeat n "1 ")) "2")))))
+
+  (are [s] (= (edn/read-string s) (edn/read-string {:max-depth 3} s))
+    "[[[1]]]"
+    "{:a #{(1)}}"
+    "[[[1 2 #_3]]]"
+    "^{:m 1} [[[1]]]")
+
+  (are [s] (thrown-with-msg? Exception #"Nesting deeper than max depth 3" (edn/read-string {:max-depth 3} s))
+    "[[[[1]]]]"
+    "{:a #{([])}}"
+    "[[[#_[1]]]]"
+    "#:x{:a [[{}]]}")
+
+  (is (thrown-with-msg? Exception #"Nesting deeper than max depth 2" (edn/read-string {:max-depth 2 :primitive-vectors true} "[[[1]]]")))
+  (is (thrown-with-msg? Exception #"Nesting deeper than max depth 2" (edn/read-events {:max-depth 2} (reify fast_edn.EdnEventHandler) "[[[1]]]")))
+
+  (let [p (edn/parser {:max-depth 2 :eof ::eof} (java.io.StringReader. "[[[1]]] [[2]]"))]
+    (is (thrown? Exception (edn/read-next p)))
+    (is (= 0 (.-frameCount ^fast_edn.EdnParser p) (.-collDepth ^fast_edn.EdnParser p))))
+
+  (let [p (edn/parser {:max-depth 2 :eof ::eof} (java.io.StringReader. "[[1]] #_[2] [[3]]"))]
+    (is (= [[1]] (edn/read-next p)))
+    (is (= [[3]] (edn/read-next p)))
+    (is (= ::eof (edn/read-next p)))))
+
+
+(deftest parser-pool-test
+  (let [pool (edn/parser-pool {:eof ::eof, :readers {'inc inc}} 2)]
+    (is (= [1 {:a 2}] (edn/read-string pool "[1 {:a #inc 1}]")))
+    (is (= ::eof (edn/read-string pool "")))
+    (is (thrown-with-msg? Exception #"EOF while reading vector" (edn/read-string pool "[1 [2")))
+    (is (= [3] (edn/read-string pool "[3]")))
+
+    (testing "parsers are reused and don't hold on to input"
+      (let [p (.acquire ^fast_edn.EdnParserPool pool)]
+        (.release ^fast_edn.EdnParserPool pool p)
+        (is (identical? p (.acquire ^fast_edn.EdnParserPool pool)))
+        (.release ^fast_edn.EdnParserPool pool p)
+        (is (nil? (.-reader ^fast_edn.EdnParser p)))))
+
+    (testing "grown buffers are not retained"
+      (is (= 10000 (count (edn/read-string pool (pr-str (vec (range 10000)))))))
+      (let [p (.acquire ^fast_edn.EdnParserPool pool)]
+        (is (<= (alength ^objects (.-scratch ^fast_edn.EdnParser p)) fast_edn.EdnParserPool/MAX_RETAINED))
+        (.release ^fast_edn.EdnParserPool pool p)))
+
+    (testing "read buffer grown with :max-buffer is not retained"
+      (let [pool (edn/parser-pool {:buffer 16 :max-buffer 4096} 1)
+            s    (pr-str (vec (for [i (range 20000)] (keyword (str "key" i)))))
+            p    (.acquire ^fast_edn.EdnParserPool pool)]
+        (.release ^fast_edn.EdnParserPool pool p)
+        (is (= (edn/read-string s) (edn/read-string pool s)))
+        (is (identical? p (.acquire ^fast_edn.EdnParserPool pool)))
+        (is (= 16 (alength (.-ownBuf ^fast_edn.EdnParser p))))
+        (is (identical? (.-ownBuf ^fast_edn.EdnParser p) (.-readBuf ^fast_edn.EdnParser p))))))
+
+  (testing "concurrent use"
+    (let [pool    (edn/parser-pool {} 2)
+          inputs  (mapv #(pr-str {:id % :v (vec (range (mod % 40)))}) (range 200))
+          expect  (mapv edn/read-string inputs)
+          results (->> (range 8)
+                    (mapv (fn [_] (future (mapv #(edn/read-string pool %) inputs))))
+                    (mapv deref))]
+      (is (every? #(= expect %) results))))
+
+  (testing "read-string pools parsers per opts"
+    (is (= [1 2] (edn/read-string {:readers {'pair (fn [x] [x (inc x)])}} "#pair 1")))
+    (is (= ::eof (edn/read-string {:eof ::eof} "")))
+    (is (nil? (edn/read-string "")))
+    (doseq [i (range 40)]
+      (is (= i (edn/read-string {:eof i} ""))))
+    (let [pool-for #'edn/pool-for
+          opts     {:eof ::hot}
+          pool     (pool-for opts)]
+      (is (identical? pool (pool-for opts)))
+      (is (identical? pool (pool-for {:eof ::hot})))
+      (doseq [i (range 40)]
+        (pool-for {:readers {'x (fn [x] (+ x i))}}))
+      (is (= 16 (.length ^java.util.concurrent.atomic.AtomicReferenceArray @#'edn/pools)))
+      (let [pool' (pool-for opts)]
+        (is (identical? pool' (pool-for opts)) "hot opts are pooled again after churn")))))
+
+(deftest in-place-input-test
+  (let [p ^fast_edn.EdnParser (edn/parser {:eof ::eof} "")]
+    (.setInput p (.toCharArray "xx[1 2] :a}yy") 2 11)
+    (is (= [1 2] (edn/read-next p)))
+    (is (= :a (edn/read-next p)))
+    (is (thrown-with-msg? Exception #"Unexpected character: \}, offset: 9" (edn/read-next p)))
+
+    (testing "switching back to Reader"
+      (edn/set-reader p (java.io.StringReader. "{:b 2}"))
+      (is (identical? (.-ownBuf p) (.-readBuf p)))
+      (is (= {:b 2} (edn/read-next p)))
+      (is (= ::eof (edn/read-next p)))))
+
+  (testing "strings longer than buffer"
+    (let [s (pr-str (vec (range 1000)))]
+      (is (= (range 1000) (edn/read-string {:buffer 16} s)))
+      (is (= (range 1000) (edn/read-once (.toCharArray ^String s))))))
+
+  (is (thrown-with-msg? Exception #"Unmatched delimiter: \], line: 2, column: 5, offset: 8"
+        (edn/read-string {:count-lines true} "{:a\n 1 ]")))
+  (is (thrown-with-msg? Exception #"Unmatched delimiter: \], line: 2, column: 5, offset: 8"
+        (edn/read-once {:count-lines true} (.toCharArray "{:a\n 1 ]")))))
+
+(deftest adaptive-buffer-test
+  (let [s    (pr-str (vec (for [i (range 20000)] (keyword (str "key" i)))))
+        read (fn [opts]
+               (let [p (edn/parser (assoc opts :eof ::eof) (java.io.StringReader. s))]
+                 [(edn/read-next p) (alength (.-readBuf ^fast_edn.EdnParser p))]))]
+    (is (= [(edn/read-string s) 256] (read {:buffer 16 :max-buffer 256})))
+    (is (= [(edn/read-string s) 16] (read {:buffer 16 :max-buffer 16})))
+    (is (= [(edn/read-string s) 16] (read {:buffer 16}))))
+
+  (testing "buffer doesn't grow when tokens fit"
+    (let [p (edn/parser {:eof ::eof, :buffer 64, :max-buffer 1024} (java.io.StringReader. (str/join " " (repeat 10000 "1"))))]
+      (while (not= ::eof (edn/read-next p)))
+      (is (= 64 (alength (.-readBuf ^fast_edn.EdnParser p))))))
+
+  (testing "column at EOF after refills"
+    (is (thrown-with-msg? Exception #"line: 1, column: 6006, offset: 6005"
+          (edn/read-string {:count-lines true} (str "[" (str/join (repeat 3000 "1 ")) "\"abc"))))))
 
 (deftest maps-handover-test
   (let [val {0.1062136078532776 5503700513430014295,
@@ -862,3 +1144,648 @@
   (is (= '{0 +} (edn/read-string "{0 +}")))
   (is (= '{- -} (edn/read-string "{- -}")))
   (is (= '#{{0 +}} (edn/read-string "#{{0 +}}"))))
+
+(deftest read-all-parallel-test
+  (let [forms (vec (for [i (range 1000)]
+                     {:i i, :s (str "line \"" i "\" ] ;"), :v [i \] \" (str i)]}))
+        s     (str/join "\n" (map pr-str forms))]
+    (is (= forms (edn/read-all-parallel s)))
+    (is (= forms (edn/read-all-parallel (.toCharArray s))))
+    (is (= forms (edn/read-all-parallel (.getBytes s "UTF-8"))))
+    (doseq [chunks [1 2 3 7 100 5000]]
+      (is (= forms (edn/read-all-parallel {:chunks chunks} s))))
+    (let [acc (java.util.concurrent.ConcurrentLinkedQueue.)]
+      (is (nil? (edn/read-all-parallel {:callback #(.add acc %)} s)))
+      (is (= (set forms) (set acc)))))
+
+  (testing "prefixes stay attached to their forms"
+    (are [s e] (= e (edn/read-all-parallel {:chunks 100} s))
+      ""                                []
+      "  \n ;; comment\n"                 []
+      "1 2 3"                           [1 2 3]
+      "1#_2 3"                          [1 3]
+      "-1 - +2 +"                       [-1 '- 2 '+]
+      "#inst \"1985\" #uuid \"f-7-1-a-8\"" [#inst "1985" #uuid "f-7-1-a-8"]
+      "#_ [1 2] ^:m [3] #:a{:b 1} ##Inf" [[3] {:a/b 1} ##Inf]
+      "\\a\\b \\newline \\\" \"\\\"\""     [\a \b \newline \" "\""]
+      "{:a ; }\n 1}\n(2)\n#{3}"          [{:a 1} '(2) #{3}])
+    (is (= [{:m true}] (map meta (edn/read-all-parallel {:chunks 100} "^:m [3]")))))
+
+  (testing "lines and offsets are counted from the start of input"
+    (let [s (str (str/join "\n" (range 100)) "\n[1 2 )")]
+      (is (thrown-with-msg? Exception #"Unmatched delimiter: \), line: 101, column: 7, offset: 296"
+            (edn/read-all-parallel {:chunks 50 :count-lines true} s))))))
+
+(deftest read-parallel-test
+  (let [v (vec (for [i (range 2000)]
+                 [i (str "\"]" i) {:k #{i}} \] (keyword (str "k" i))]))
+        m (into {} (map-indexed (fn [i x] [(str "k" i) x])) v)]
+    (doseq [chunks [1 2 3 7 100 5000]
+            :let [opts {:chunks chunks, :min-size 0}]]
+      (is (= v (edn/read-parallel opts (pr-str v))))
+      (is (= m (edn/read-parallel opts (pr-str m))))
+      (is (= v (edn/read-parallel opts (str " \n,[" (subs (pr-str v) 1) " :trailing"))))))
+
+  (are [s e] (= e (edn/read-parallel {:chunks 100, :min-size 0} s))
+    "[]"                                   []
+    "{}"                                   {}
+    "[1 #_2 3 ^:m [4] #inst \"1985\"]"     [1 3 [4] #inst "1985"]
+    "{:a #_:b 1 #_ #_ :c 2 #:ns{:x 1} #{}}" {:a 1 {:ns/x 1} #{}}
+    "#{1 2}"                               #{1 2}
+    "^:m [1 2]"                            [1 2]
+    "1"                                    1)
+
+  (are [s m] (thrown-with-msg? Exception m (edn/read-parallel {:chunks 100, :min-size 0} s))
+    "[1 2"         #"EOF while reading vector"
+    "{:a 1 :a 2}"  #"Duplicate key: :a"
+    "{:a 1 :b}"    #"Map literal must contain an even number of forms"
+    "[1 2 1a]"     #"For input string: \"1a\", offset: 7")
+
+  (testing "readers run once, their exceptions are rethrown as is"
+    (let [calls (atom 0)
+          ex    (ex-info "bad x" {})
+          s     (str "[" (str/join " " (repeat 20000 "#x 1")) " #x 2]")]
+      (is (identical? ex (try
+                           (edn/read-parallel {:min-size 0
+                                               :readers  {'x #(do (swap! calls inc)
+                                                                  (if (= 2 %) (throw ex) %))}} s)
+                           (catch Exception e
+                             (if (identical? ex e) e (ex-cause e))))))
+      (is (= 20001 @calls)))))
+
+(defn recording-handler [events]
+  (reify fast_edn.EdnEventHandler
+    (startList [_] (swap! events conj :list))
+    (endList [_] (swap! events conj :end-list))
+    (startVector [_] (swap! events conj :vector))
+    (endVector [_] (swap! events conj :end-vector))
+    (startSet [_] (swap! events conj :set))
+    (endSet [_] (swap! events conj :end-set))
+    (startMap [_ ns] (swap! events conj (if ns [:map ns] :map)))
+    (endMap [_] (swap! events conj :end-map))
+    (startMeta [_] (swap! events conj :meta))
+    (tag [_ t] (swap! events conj [:tag t]))
+    (nullValue [_] (swap! events conj nil))
+    (booleanValue [_ v] (swap! events conj v))
+    (longValue [_ v] (swap! events conj [:long v]))
+    (doubleValue [_ v] (swap! events conj [:double v]))
+    (number [_ v] (swap! events conj v))
+    (string [_ v] (swap! events conj v))
+    (character [_ v] (swap! events conj v))
+    (keyword [_ v] (swap! events conj v))
+    (symbol [_ v] (swap! events conj v))))
+
+(defn events [s]
+  (let [events (atom [])]
+    (edn/read-events (recording-handler events) s)
+    @events))
+
+(deftest read-events-test
+  (are [s e] (= e (events s))
+    ""                      []
+    "1 -2 +3 1.5 -1.5 ##Inf" [[:long 1] [:long -2] [:long 3] [:double 1.5] [:double -1.5] [:double ##Inf]]
+    "1N 1.5M 1/2"           [1N 1.5M 1/2]
+    "nil true false"        [nil true false]
+    "\"s\" \\c :kw sym - +" ["s" \c :kw 'sym '- '+]
+    "[1 (2) #{3}]"          [:vector [:long 1] :list [:long 2] :end-list :set [:long 3] :end-set :end-vector]
+    "{:a {:b 1}}"           [:map :a :map :b [:long 1] :end-map :end-map]
+    "#:ns{:a 1}"            [[:map "ns"] :a [:long 1] :end-map]
+    "^:m [#_ 1 ; comment\n]" [:meta :m :vector :end-vector]
+    "#inst \"1985\" #foo/bar [x]" [[:tag 'inst] "1985" [:tag 'foo/bar] :vector 'x :end-vector]
+    "0x10 1e5 -0.5 1.5e-3"  [[:long 16] [:double 1e5] [:double -0.5] [:double 1.5e-3]]
+    "#_ #_ 1 [2 {3 4}] 5"   [[:long 5]]
+    "[#_ ;c\n (1 [2]) 3]"   [:vector [:long 3] :end-vector]
+    "^{:a #_ 1 2} #t [nil]" [:meta :map :a [:long 2] :end-map [:tag 't] :vector nil :end-vector]
+    "[1 2] ; c"             [:vector [:long 1] [:long 2] :end-vector])
+
+  (testing "deep nesting"
+    (let [s (str (apply str (repeat 100000 "[")) (apply str (repeat 100000 "]")))
+          n (count (filter #{:vector} (events s)))]
+      (is (= 100000 n)))
+    (is (thrown-with-msg? Exception #"Nesting deeper than max depth 2"
+          (edn/read-events {:max-depth 2} (reify fast_edn.EdnEventHandler) "[[[1]]]")))
+    (is (= [:vector :vector :end-vector :end-vector]
+          (let [acc (atom [])]
+            (edn/read-events {:max-depth 2 :primitive-vectors true}
+              (reify fast_edn.EdnEventHandler
+                (startVector [_] (swap! acc conj :vector))
+                (endVector [_] (swap! acc conj :end-vector)))
+              "[[]]")
+            @acc))))
+
+  (let [calls (atom 0)]
+    (edn/read-events
+      (reify fast_edn.EdnEventHandler
+        (keyword [_ _] (swap! calls inc)))
+      "[:a {:b \"c\" :d [:e]}]")
+    (is (= 4 @calls)))
+
+  (are [s m] (thrown-with-msg? Exception m (events s))
+    "["          #"EOF while reading vector"
+    "{:a}"       #"Map literal must contain an even number of forms"
+    "[}"         #"Unmatched delimiter: \}"
+    "}"          #"Unexpected character: \}"
+    "^:m"        #"EOF while reading"
+    "#1 2"       #"No dispatch macro for: #1"
+    "#[1]"       #"No dispatch macro for: #\["
+    "[#_]"       #"Unexpected character: \]"
+    "#_"         #"EOF while reading"
+    "(1 #t)"     #"Unexpected character: \)"
+    "1a"         #"For input string: \"1a\""))
+
+(deftest feed-test
+  (let [f (edn/feeder)]
+    (is (= [{:a 1}] (edn/feed f (.getBytes "{:a 1} [1 "))))
+    (is (= [[1 2]] (edn/feed f (.getBytes "2] 3"))))
+    (is (= [3] (edn/finish-feed f))))
+
+  (testing "arbitrary fragments"
+    (let [s     (str "{:a 1, :b [\"str\\\"ing\" \\] \\a]} ; comment\n"
+                  "абв😀 \"😀\" #_ #_ 1 2 3 ^:meta [4] #inst \"2020-01-01T00:00:00.000-00:00\" "
+                  "#:ns{:x 1} ##Inf -5 +5 - 12.5M 1/2 (1 (2 (3))) #{1 2} nil true :kw sym/bol 42")
+          all   (let [p (edn/parser {:eof ::eof} s)]
+                  (vec (take-while #(not= ::eof %) (repeatedly #(edn/read-next p)))))
+          bytes (.getBytes s "UTF-8")
+          rnd   (java.util.Random. 42)]
+      (dotimes [_ 100]
+        (let [f      (edn/feeder)
+              cuts   (sort (distinct (concat [0 (alength bytes)] (repeatedly 10 #(.nextInt rnd (alength bytes))))))
+              chunks (map (fn [[from to]] (java.util.Arrays/copyOfRange bytes (int from) (int to))) (partition 2 1 cuts))]
+          (is (= all (into (vec (mapcat #(edn/feed f %) chunks)) (edn/finish-feed f))))))
+      (let [f (edn/feeder)]
+        (is (= all (into (vec (mapcat #(edn/feed f (str %)) s)) (edn/finish-feed f)))))))
+
+  (testing "end of input"
+    (are [s res] (= res (let [f (edn/feeder)]
+                          (into (edn/feed f s) (edn/finish-feed f))))
+      ""               []
+      "  "             []
+      "1 ; comment"    [1]
+      "1 #_ 2"         [1]
+      "1 #_ 2 ; c"     [1]
+      "[1] [2]\n"      [[1] [2]]
+      "\"\\u0040\" 1." ["@" 1.0])
+
+    (are [s msg] (thrown-with-msg? Exception msg (let [f (edn/feeder)]
+                                                   (edn/feed f s)
+                                                   (edn/finish-feed f)))
+      "[1 2"   #"EOF while reading vector"
+      "\"abc"  #"EOF while reading string"
+      "1 ^:a"  #"EOF while reading"
+      "1 ^:a " #"EOF while reading"
+      "1 #foo" #"EOF while reading"
+      "1 2 ]"  #"Unexpected character: \], offset: 5"))
+
+  (testing "offsets count from start of stream"
+    (let [f (edn/feeder)]
+      (is (= [1 2] (edn/feed f "1 2 ")))
+      (is (thrown-with-msg? Exception #"Unmatched delimiter: \}, offset: 9" (edn/feed f "[3 4}")))))
+
+  (testing "opts"
+    (let [f (edn/feeder {:readers {'inc inc}})]
+      (is (= [2] (edn/feed f "#inc 1 ")))))
+
+  (testing "utf-8 split between chunks"
+    (let [f     (edn/feeder)
+          bytes (.getBytes "\"😀\" " "UTF-8")]
+      (is (= [] (edn/feed f (java.util.Arrays/copyOfRange bytes 0 3))))
+      (is (= ["😀"] (edn/feed f (java.nio.ByteBuffer/wrap bytes 3 (- (alength bytes) 3)))))))
+
+  (testing "big forms in small chunks"
+    (let [f      (edn/feeder)
+          s      (pr-str (vec (range 20000)))
+          chunks (map #(apply str %) (partition-all 7 s))]
+      (is (= [(vec (range 20000))] (into (vec (mapcat #(edn/feed f %) chunks)) (edn/finish-feed f))))
+      (is (<= (alength ^chars (.-buf ^fast_edn.EdnFeeder f)) fast_edn.EdnFeeder/MAX_RETAINED)))))
+
+(deftest read-paths-test
+  (let [doc "{:meta {:id 1 :size [1 2 3] :tags #{\"a\" \"b\"}}
+              :body [\"]\" \\] \\\" {:nested \"}\"} ; comment ]
+                     #inst \"2024-01-01\" ^:m (x y) #_ \"]\" ##Inf]
+              :name \"doc\"
+              #_ :discarded #_ 1
+              :extra #:ns{:a 1}}"]
+    (are [paths e] (= e (edn/read-paths paths doc))
+      []                          {}
+      [[]]                        (edn/read-string doc)
+      [[:name]]                   {:name "doc"}
+      [[:meta :id]]               {:meta {:id 1}}
+      [[:meta :id] [:meta]]       {:meta {:id 1 :size [1 2 3] :tags #{"a" "b"}}}
+      [[:meta :id] [:name]]       {:meta {:id 1} :name "doc"}
+      [[:meta :missing]]          {:meta {}}
+      [[:missing :id]]            {}
+      [[:name :id]]               {}
+      [[:extra :ns/a]]            {:extra {:ns/a 1}}
+      [[:body] [:name]]           {:body (:body (edn/read-string doc)) :name "doc"}))
+
+  (is (= nil (edn/read-paths [[:a]] "[{:a 1}]")))
+  (is (= nil (edn/read-paths [[:a]] "#{:a}")))
+  (is (= nil (edn/read-paths [[:a]] "#inst \"2024-01-01\"")))
+  (is (= {:x/a 1 :b 2} (edn/read-paths [[:x/a] [:b]] "; comment\n#:x{:a 1 :_/b 2}")))
+  (is (= {:a {:b 2}} (edn/read-paths [[:a :b]] "{:skip 1 :a {:b 2} :skip2 [1 2 3]}")))
+  (is (= ::eof (edn/read-paths {:eof ::eof} [[:a]] "")))
+
+  (testing "prefixes before selected values"
+    (are [s e] (= e (edn/read-paths [[:a :id] [:b]] s))
+      "{:a #_ 1 {:id 1 :x 2} :b 2}"          {:a {:id 1} :b 2}
+      "{:a #_ #_ 1 2 ; c\n {:id 1} :b 2}"    {:a {:id 1} :b 2}
+      "{:a ^:m {:id 1 :x 2} :b 2}"           {:a {:id 1} :b 2}
+      "{:a ^{:m 1} ^:n #_ x {:id 1} :b 2}"   {:a {:id 1} :b 2}
+      "{:a ^:m [1] :b #_ 1 2}"               {:b 2}
+      "#_ {:b 1} ^:m {:b 2}"                 {:b 2})
+    (is (= {:m true} (meta (:a (edn/read-paths [[:a :id]] "{:a ^:m {:id 1}}")))))
+    (is (= {:m true} (meta (edn/read-paths [[:a]] "^:m {:a 1}"))))
+    (is (thrown-with-msg? Exception #"Map literal must contain an even number of forms" (edn/read-paths [[:a :id]] "{:a #_}")))
+    (is (thrown-with-msg? Exception #"EOF while reading" (edn/read-paths [[:a :id]] "{:a ^:m"))))
+
+  (testing "parser state is reset after error"
+    (let [p (edn/parser {:max-depth 2} "{:a [[[1]]]}")]
+      (is (thrown-with-msg? Exception #"Nesting deeper than max depth 2" (.readNextSelected p {:a true})))
+      (is (= 0 (.-collDepth p) (.-frameCount p) (.-scratchTop p)))
+      (is (= [[1]] (edn/read-next (edn/set-reader p "[[1]]"))))))
+
+  (doseq [size [8 16 32 64 1024]]
+    (is (= {:b "b"} (edn/read-paths {:buffer size} [[:b]] (str "{:a " (pr-str (vec (range 100))) " :b \"b\" :c \"" (apply str (repeat 100 "x")) "\"}")))))
+
+  (are [s m] (thrown-with-msg? Exception m (edn/read-paths [[:a]] s))
+    ""                #"EOF while reading"
+    "{:a 1"           #"EOF while reading map"
+    "{:b [1 2"        #"EOF while skipping"
+    "{:b \"abc"       #"EOF while skipping"
+    "{:b}"            #"Map literal must contain an even number of forms"
+    "{:b ]"           #"Unmatched delimiter: \]"
+    "{:a 1 :a 2}"     #"Duplicate key: :a"
+    "]"               #"Unexpected character: \]"))
+
+(deftest read-lazy-test
+  (let [doc "{:meta {:id 1 :size [1 2 3] :tags #{\"a\" \"b\"}}
+              :body [\"]\" \\] {:nested \"}\"} ; comment ]
+                     #inst \"2024-01-01\" ^:m (x y) #_ \"]\" ##Inf]
+              :name \"doc\"
+              #_ :discarded #_ 1
+              :extra #:ns{:a 1}}"
+        m   (edn/read-lazy doc)]
+    (testing "same as read-string"
+      (is (= (edn/read-string doc) m))
+      (is (= (hash (edn/read-string doc)) (hash m)))
+      (is (= (edn/read-string doc) (edn/read-lazy (.toCharArray doc))))
+      (is (= (edn/read-string doc) (edn/read-lazy (java.io.StringReader. doc)))))
+
+    (testing "values are parsed on access"
+      (let [m ^fast_edn.LazyMap (edn/read-lazy doc)]
+        (is (every? #(identical? fast_edn.LazyEdn/UNREALIZED %) (.-values m)))
+        (is (= "doc" (:name m)))
+        (is (= 1 (count (remove #(identical? fast_edn.LazyEdn/UNREALIZED %) (.-values m)))))
+        (is (instance? fast_edn.LazyMap (:meta m)))
+        (is (instance? fast_edn.LazyVector (:size (:meta m))))
+        (is (identical? (:meta m) (:meta m)))
+        (is (= 2 (nth (:size (:meta m)) 1)))
+        (is (= {:ns/a 1} (:extra m)))
+        (is (= nil (:missing m)))
+        (is (= ::nf (get m :missing ::nf)))))
+
+    (testing "raw"
+      (is (= doc (edn/raw m)))
+      (is (= "\"doc\"" (edn/raw m :name)))
+      (is (= "[1 2 3]" (edn/raw (:meta m) :size)))
+      (is (= "\\]" (edn/raw (:body m) 1)))
+      (is (= "{:nested \"}\"}" (edn/raw (:body m) 2)))
+      (is (= nil (edn/raw m :missing)))
+      (is (= nil (edn/raw (:body m) 10)))
+      (is (= nil (edn/raw {:a 1} :a)))
+      (is (= doc (edn/write-string m)))
+      (is (= (edn/write-string {:writers {Long str}} (edn/read-string doc)) (edn/write-string {:writers {Long str}} m))))
+
+    (testing "structural index"
+      (doseq [s [doc
+                 "[a[b]c\\[ \"[\" ^{:m [1]} [2] #_[3] #{[4]} #tag [5] ; [\n (6 [7]) #:ns{:a [8]}]"
+                 (slurp "dev/data/nested_100000.edn")]
+              :let [c   (.toCharArray ^String s)
+                    idx (fast_edn.EdnIndex/build c 0 (alength c))]]
+        (doseq [i (range (alength c))
+                :when (<= 0 (.find idx i))]
+          (is (= (vec (fast_edn.EdnScanner/splitChildren c i (alength c) 1 0))
+                 (vec (.children idx i))))))))
+
+  (testing "updates"
+    (let [v (edn/read-lazy "[1 2 3]")
+          m (edn/read-lazy "{:a 1 :b [2]}")]
+      (is (= [1 2 3 4] (conj v 4)))
+      (is (= [1 :x 3] (assoc v 1 :x)))
+      (is (= [1 2] (pop v)))
+      (is (= [1 2 3 4] (persistent! (conj! (transient v) 4))))
+      (is (= [1 2 3] (seq v) (reduce conj [] v)))
+      (is (= {:a 1 :b [2] :c 3} (assoc m :c 3)))
+      (is (= {:b [2]} (dissoc m :a)))
+      (is (= {:a 1 :b [2] :c 3} (persistent! (assoc! (transient m) :c 3))))
+      (is (= {:a 1 :b [2]} (into {} m) (reduce-kv assoc {} m)))
+      (is (= {:m true} (meta (with-meta v {:m true}))))
+      (is (= {:m true} (meta (conj (with-meta v {:m true}) 4))))
+      (is (= {:m true} (meta (assoc (with-meta m {:m true}) :c 3))))))
+
+  (testing "deep nesting"
+    (let [s (str (apply str (repeat 10000 "[")) (apply str (repeat 10000 "]")))]
+      (is (= [] (get-in (edn/read-lazy s) (repeat 9999 0))))))
+
+  (testing "mismatched brackets"
+    (are [s] (thrown-with-msg? Exception #"Unmatched delimiter" (edn/read-lazy s))
+      "[1 [2 3 )]"
+      "{:a (1 2]}"
+      "[#{1 2]]"
+      "[1 {:a [2 3}]}"))
+
+  (testing "max depth"
+    (is (= [[1]] (edn/read-lazy {:max-depth 2} "[[1]]")))
+    (is (= {:a [1]} (edn/read-lazy {:max-depth 2} "{:a [1]}")))
+    (are [s] (thrown-with-msg? Exception #"Nesting deeper than max depth 2" (edn/read-lazy {:max-depth 2} s))
+      "[[[[1]]]]"
+      "[[(1)]]"
+      "{:a {:b #{1}}}"
+      "[1 ^{:m [2]} [3]]"))
+
+  (testing "primitive vectors"
+    (let [v (edn/read-lazy {:primitive-vectors true} "[[1 2] [3.5] [:a 1] [] [-1 x] [##Inf]]")]
+      (is (instance? fast_edn.LazyVector v))
+      (is (= [[1 2] [3.5] [:a 1] [] '[-1 x] [##Inf]] v))
+      (is (instance? fast_edn.LongVector (nth v 0)))
+      (is (instance? fast_edn.DoubleVector (nth v 1)))
+      (is (instance? fast_edn.LazyVector (nth v 2)))
+      (is (instance? fast_edn.DoubleVector (nth v 5)))))
+
+  (testing "big maps"
+    (let [data (into {} (map (fn [i] [(keyword (str "k" i)) [i (str i)]])) (range 100))
+          m    (edn/read-lazy (pr-str data))]
+      (is (some? (.-index ^fast_edn.LazyMap m)))
+      (is (= [42 "42"] (:k42 m)))
+      (is (= data m))
+      (is (= (assoc data :k0 0) (assoc m :k0 0)))))
+
+  (are [s e] (= e (edn/read-lazy s))
+    "[]"           []
+    "{}"           {}
+    "[1 #_2]"      [1]
+    "{:a #_1 2}"   {:a 2}
+    " ;c\n [a] x" '[a]
+    "^:m [1]"      [1]
+    "#{1}"         #{1}
+    "42"           42)
+
+  (is (= ::eof (edn/read-lazy {:eof ::eof} "")))
+
+  (are [s m] (thrown-with-msg? Exception m (edn/read-lazy s))
+    ""            #"EOF while reading"
+    "[1 2"        #"EOF while reading vector"
+    "{:a 1"       #"EOF while reading map"
+    "{:a}"        #"Map literal must contain an even number of forms"
+    "{:a ]"       #"Unmatched delimiter: \]"
+    "{:a 1 :a 2}" #"Duplicate key: :a"
+    "]"           #"Unexpected character: \]"))
+
+(defrecord WriterRecord [a])
+
+(deftest write-string-test
+  (testing "same as pr-str"
+    (are [v] (= (pr-str v) (edn/write-string v))
+      nil true false
+      0 1 -1 Long/MAX_VALUE Long/MIN_VALUE (int 42) (short -7) (byte 3)
+      1.5 -0.0 1e300 4.9E-324 ##Inf ##-Inf ##NaN (float 1.5) Float/POSITIVE_INFINITY
+      1N 123456789012345678901234567890N 1.5M 1/2 -3/4
+      "" "abc" "\"quoted\"" "back\\slash" "\n\t\r\f\b" "привет 🙂" "\u0000"
+      \a \A \newline \space \tab \backspace \formfeed \return \" \\ \ы
+      :a :ns/a :a.b/c 'a 'ns/a '/ '+ '-
+      [] [1 2 3] (vec (range 100)) (vec (range 1000))
+      {} {:a 1} {:a 1 :b [2 3]} (zipmap (range 20) (range 20))
+      #{} #{1} (set (range 20))
+      () '(1 2 3) (list) (range 5) (map inc [1 2 3]) (cons 1 '(2)) (seq [1 2]) (seq {:a 1})
+      [{:a #{[1 '(2)]}}]
+      #uuid "d6e2ed2f-6b64-4ba5-9f88-e4c0f22b0c2e"
+      #inst "1970-01-01T00:00:00.000-00:00"
+      #inst "2024-02-29T23:59:59.999-00:00"
+      #inst "1969-12-31T23:59:59.001-00:00"
+      #inst "1582-10-15T00:00:00.000-00:00"
+      #inst "9999-12-31T23:59:59.999-00:00"
+      #inst "1000-01-01T00:00:00.000-00:00"
+      (java.sql.Timestamp. 0)
+      (tagged-literal 'foo/bar [1 2])
+      (->WriterRecord 1)
+      (sorted-map :b 2 :a 1)
+      (sorted-set 3 1 2)
+      (first {:a 1})
+      (java.util.ArrayList. [1 2])
+      clojure.lang.PersistentQueue/EMPTY))
+
+  (testing "dates"
+    (let [rnd (java.util.Random. 42)]
+      (doseq [_ (range 1000)
+              :let [d (java.util.Date. (- (mod (.nextLong rnd) 600000000000000) 300000000000000))]]
+        (is (= (pr-str d) (edn/write-string d))))
+      (doseq [_ (range 1000)
+              :let [d (java.util.Date. (- (mod (.nextLong rnd) 265621593600000) 12219292800000))]]
+        (is (= (pr-str d) (edn/write-string d))))))
+
+  (testing "BigInteger is written readably"
+    (is (= "1N" (edn/write-string (biginteger 1)))))
+
+  (testing "metadata is not written"
+    (is (= "[1]" (edn/write-string (with-meta [1] {:a 1})))))
+
+  (testing "round trip"
+    (doseq [file (.listFiles (io/file "dev/data"))
+            :when (str/ends-with? (.getName file) ".edn")
+            :let [data (edn/read-once file)]]
+      (is (= data (edn/read-string (edn/write-string data))) (.getName file))
+      (is (= (pr-str data) (edn/write-string data)) (.getName file))))
+
+  (testing "writers"
+    (let [opts {:writers {java.net.URI    #(tagged-literal 'uri (str %))
+                          WriterRecord    #(into {} %)
+                          java.util.List  vec}}]
+      (are [v s] (= s (edn/write-string opts v))
+        (java.net.URI. "https://example.com") "#uri \"https://example.com\""
+        [(java.net.URI. "a") (->WriterRecord 1)] "[#uri \"a\" {:a 1}]"
+        (java.util.ArrayList. [1 2])              "[1 2]"
+        (java.util.LinkedList. [1 2])             "[1 2]"))
+
+    (testing "writer that returns its own type"
+      (let [opts {:writers {clojure.lang.PersistentArrayMap #(dissoc % :secret)
+                            clojure.lang.PersistentVector   #(conj % :end)}}]
+        (is (= "{:a [1 :end]}" (edn/write-string opts {:a [1] :secret 2})))
+        (is (= "[[1 :end] :end]" (edn/write-string opts [[1]]))))
+      (is (= "[1 2]" (edn/write-string {:writers {java.util.List #(java.util.ArrayList. ^java.util.List %)}} (java.util.ArrayList. [1 2]))))
+      (is (= (pr-str (->WriterRecord 2)) (edn/write-string {:writers {clojure.lang.IRecord #(update % :a inc)}} (->WriterRecord 1))))))
+
+  (testing "buffer growth"
+    (doseq [size [1 16 17]]
+      (is (= (pr-str [(apply str (repeat 100 "\""))]) (edn/write-string {:buffer size} [(apply str (repeat 100 "\""))])))
+      (is (= (pr-str (vec (range 100))) (edn/write-string {:buffer size} (vec (range 100)))))))
+
+  (testing "write-bytes"
+    (are [v] (= (seq (.getBytes (pr-str v) "UTF-8")) (seq (edn/write-bytes v)))
+      "abc"
+      "привет"
+      "🙂 ок"
+      {:a ["é" \ы]}
+      "\ud800"
+      "x\udc00y")))
+
+(deftest write-test
+  (let [data (edn/read-once (io/file "dev/data/basic_1000.edn"))
+        expected (pr-str data)]
+    (doseq [size [16 17 100 8192]]
+      (let [sw (java.io.StringWriter.)]
+        (edn/write {:buffer size} sw data)
+        (is (= expected (str sw))))
+      (let [os (java.io.ByteArrayOutputStream.)]
+        (edn/write {:buffer size} os data)
+        (is (= expected (String. (.toByteArray os) "UTF-8"))))))
+
+  (testing "buffer doesn’t grow"
+    (let [sw (java.io.StringWriter.)
+          w  (fast_edn.EdnWriter. 16 nil sw)
+          s  (apply str (repeat 1000 "a\"\n"))]
+      (.flush (.write w [s s]))
+      (is (= (pr-str [s s]) (str sw)))
+      (is (= 16 (alength (.-buf w))))))
+
+  (testing "surrogate pairs split by buffer boundary"
+    (doseq [size [16 17 18 19]
+            prefix ["" "a" "ab" "abc"]]
+      (let [v  [prefix (apply str (repeat 50 "🙂")) \ы "\ud800" "x\udc00"]
+            os (java.io.ByteArrayOutputStream.)]
+        (edn/write {:buffer size} os v)
+        (is (= (seq (.getBytes (pr-str v) "UTF-8")) (seq (.toByteArray os)))))))
+
+  (testing "lazy seqs and reducibles"
+    (are [v s] (= s (let [sw (java.io.StringWriter.)] (edn/write sw v) (str sw)))
+      (map inc (range 5))               "(1 2 3 4 5)"
+      (eduction (map inc) (range 5))    "(1 2 3 4 5)"
+      (eduction (filter even?) [])      "()"
+      [(eduction (map inc) [1]) (map identity [])] "[(2) ()]")
+    (is (= "(0 1 2)" (edn/write-string (reify clojure.lang.IReduceInit
+                                         (reduce [_ f init]
+                                           (-> init (f 0) (f 1) (f 2))))))))
+
+  (testing "file"
+    (let [file (java.io.File/createTempFile "fast-edn" ".edn")]
+      (try
+        (edn/write file {:a ["é" 1]})
+        (is (= {:a ["é" 1]} (edn/read-once file)))
+        (finally
+          (.delete file)))))
+
+  (is (thrown-with-msg? Exception #"Expected Writer, OutputStream or File" (edn/write "out.edn" 1))))
+
+(deftest keyword-cache-test
+  (let [kws  (for [i (range 10000)] (keyword (str "ns" (mod i 7)) (str "k" i)))
+        syms (for [i (range 10000)] (symbol (str "s" i)))
+        long (keyword (apply str (repeat 100 "x")))
+        data (vec (concat kws syms kws syms [long long 'a/b :a/b 'a :a]))]
+    (dotimes [_ 2]
+      (is (= data (edn/read-string (pr-str data)))))
+    (is (= [:a/b/c 'a/b/c :a 'a] (edn/read-string "[:a/b/c a/b/c :a a]")))
+    (let [[a b] (edn/read-string "[sym sym]")]
+      (is (identical? a b)))))
+
+(deftest dedupe-strings-test
+  (let [s "[\"DK\" \"US\" \"DK\" \"a\\\"b\" \"a\\\"b\" \"\" \"\"]"]
+    (let [v (edn/read-string s)]
+      (is (= ["DK" "US" "DK" "a\"b" "a\"b" "" ""] v))
+      (is (not (identical? (nth v 0) (nth v 2)))))
+    (doseq [opt [true 1 2 3 1000]]
+      (let [v (edn/read-string {:dedupe-strings opt} s)]
+        (is (= ["DK" "US" "DK" "a\"b" "a\"b" "" ""] v))
+        (when (not= 1 opt)
+          (is (identical? (nth v 0) (nth v 2))))
+        (is (identical? (nth v 3) (nth v 4))))))
+
+  (let [long (apply str (repeat 33 "x"))
+        v    (edn/read-string {:dedupe-strings true} (pr-str [long long]))]
+    (is (= [long long] v))
+    (is (not (identical? (first v) (second v)))))
+
+  (let [data (edn/read-once (io/file "dev/data/strings_1000.edn"))]
+    (is (= data (edn/read-once {:dedupe-strings 16 :buffer 64} (io/file "dev/data/strings_1000.edn"))))))
+
+(deftest box-cache-test
+  (let [read  #(edn/read-string {:box-cache true} %)
+        read' #(edn/read-string {:box-cache [-10 10]} %)]
+    (is (identical? (read "1000") (read "1000")))
+    (is (identical? (read "-1000") (read "-1000")))
+    (is (identical? (read "1000") (read "0x3E8")))
+    (is (identical? (first (read "[1000.0]")) (first (read "[1e3]"))))
+    (is (identical? (read "-5.0") (read "-5.0")))
+    (is (identical? (read "\\u00e9") (read "\\u00e9")))
+    (is (not (identical? (read "100000") (read "100000"))))
+    (is (not (identical? (read "1000.5") (read "1000.5"))))
+    (is (not (identical? (read' "1000") (read' "1000"))))
+    (is (identical? (read' "-10") (read' "-10")))
+    (is (not (identical? (read' "10.0") (read' "10.0"))))
+    (is (not (identical? (edn/read-string "1000") (edn/read-string "1000"))))
+
+    (are [s] (let [v (read s)
+                   e (clojure.edn/read-string s)]
+               (and (= e v) (= (class e) (class v))))
+      "0" "-0" "0.0" "-0.0" "-1" "-1.5" "-32768" "-32769" "65535" "65536"
+      "-0x10" "-2r101" "-1/2" "-1N" "-1.5M" "-1e3" "1e20" "\\a" "\\u20ac")
+
+    (is (= "-0.0" (pr-str (read "-0.0"))))
+    (is (= "0.0" (pr-str (read "0.0"))))))
+
+(deftest primitive-vectors-test
+  (let [read #(edn/read-string {:primitive-vectors true} %)]
+    (are [s e c] (let [v (read s)]
+                   (and (= e v) (= c (class v))))
+      "[]"              []              clojure.lang.PersistentVector
+      "[1 2 3]"         [1 2 3]         fast_edn.LongVector
+      "[-1 0x10 #_ 2]"  [-1 16]         fast_edn.LongVector
+      "[1.5 -2.0 ##Inf]" [1.5 -2.0 ##Inf] fast_edn.DoubleVector
+      "[1 2.5]"         [1 2.5]         clojure.lang.PersistentVector
+      "[1.5 2]"         [1.5 2]         clojure.lang.PersistentVector
+      "[1 2 :a 3]"      [1 2 :a 3]      clojure.lang.PersistentVector
+      "[:a 1 2]"        [:a 1 2]        clojure.lang.PersistentVector
+      "[1N 2]"          [1N 2]          clojure.lang.PersistentVector
+      "[2 1.5M]"        [2 1.5M]        clojure.lang.PersistentVector
+      "[01 -0 1e5]"     [1 0 1e5]       clojure.lang.PersistentVector
+      "[1e5 1. -0.0]"   [1e5 1.0 -0.0]  fast_edn.DoubleVector
+      "[- 1]"           ['- 1]          clojure.lang.PersistentVector
+      "[1 ; c\n 2,3]"   [1 2 3]         fast_edn.LongVector
+      "[123456789012345678901 2]" [123456789012345678901N 2] clojure.lang.PersistentVector)
+
+    (let [v (read (pr-str (vec (range 1000))))]
+      (is (instance? fast_edn.LongVector v))
+      (is (= 1000 (alength ^longs (.-array ^fast_edn.LongVector v))))
+      (is (= (vec (range 1000)) v))
+      (is (= (hash (vec (range 1000))) (hash v)))
+      (is (= (reduce + (range 1000)) (reduce + v)))
+      (is (= 6 (reduce (fn [acc x] (if (> x 2) (reduced acc) (+ acc x))) 3 v)))
+      (is (= 999 (peek v)))
+      (is (= (vec (range 999)) (pop v)))
+      (is (= (conj (vec (range 1000)) :x) (conj v :x)))
+      (is (= (assoc (vec (range 1000)) 0 :x) (assoc v 0 :x)))
+      (is (instance? fast_edn.LongVector (assoc v 0 -1)))
+      (is (= [-1 1 2] (subvec (assoc v 0 -1) 0 3)))
+      (is (= (vec (range 1000)) v) "assoc doesn't modify original")
+      (is (= [] (pop (read "[1]"))))
+      (is (thrown? IllegalStateException (pop (fast_edn.LongVector. (long-array 0) 0 nil))))
+      (is (= (range 1000) (seq v)))
+      (is (= (into [] (range 1000)) (into [] v)))
+      (is (= 999 (nth v 999)))
+      (is (= :nf (nth v 1000 :nf)))
+      (is (thrown? IndexOutOfBoundsException (nth v 1000)))
+      (is (= {:a 1} (meta (read "^{:a 1} [1 2]"))))
+      (is (= (pr-str (vec (range 1000))) (pr-str v) (edn/write-string v)))
+      (is (= (conj (vec (range 1000)) 1000) (persistent! (conj! (transient v) 1000))))
+      (is (= (into (vec (range 1000)) [:x :y]) (into v [:x :y])))
+      (is (= (vec (range 1000)) v) "transient doesn't modify original"))
+
+    (let [v (read "[1.5 2.5]")]
+      (is (= 4.0 (reduce + v)))
+      (is (= "[1.5 2.5]" (pr-str v) (edn/write-string v)))
+      (is (instance? fast_edn.DoubleVector (assoc v 1 0.5)))
+      (is (= [1.5 2.5 3.5] (persistent! (conj! (transient v) 3.5))))
+      (is (= [1.5 2.5 :x] (into v [:x]))))
+
+    (is (= {:a [[1 2] [3.5] [:b 1]]} (read "{:a [[1 2] [3.5] [:b 1]]}")))
+
+    (is (thrown-with-msg? Exception #"EOF while reading vector: \[1 2" (read "[1 2")))
+    (is (thrown-with-msg? Exception #"Unmatched delimiter: \}" (read "[1 2}")))))